@@ -0,0 +1,30 @@
+package com.hmdp.config;
+
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.utils.CacheChangeFeed;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CompactCacheCodec;
+import com.hmdp.utils.OutboxCacheChangeFeed;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 缓存配置
+ * 编解码器切换为JsonCacheCodec即可回到原来的JSON格式
+ */
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    public CacheCodec cacheCodec() {
+        return new CompactCacheCodec();
+    }
+
+    /**
+     * 缓存失效的变更数据源，接入binlog时替换为对应的实现
+     */
+    @Bean
+    public CacheChangeFeed cacheChangeFeed(CacheOutboxMapper cacheOutboxMapper) {
+        return new OutboxCacheChangeFeed(cacheOutboxMapper);
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热热门店铺缓存，防止服务刚启动时大量请求同时未命中打到数据库
+ * 店铺数据通过游标流式读取，分批写入Redis，逻辑过期时间随机打散
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        try {
+            //游标需要在同一个连接内遍历，放在只读事务中执行
+            Integer count = transactionTemplate.execute(status -> {
+                try (Cursor<Shop> cursor = shopMapper.scanHotShops(CACHE_SHOP_WARMUP_SIZE)) {
+                    return cacheClient.warmUp(CACHE_SHOP_KEY, cursor, Shop::getId,
+                            CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS, CACHE_WARMUP_BATCH_SIZE, CACHE_WARMUP_PAUSE_MILLIS);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            log.info("店铺缓存预热完成，写入{}条，耗时{}ms", count, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            //预热失败不影响启动，缓存会在访问时按需重建
+            log.error("店铺缓存预热失败", e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmdp.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.SystemConstants.SHOP_DETAIL_QUEUE_CAPACITY;
+import static com.hmdp.utils.SystemConstants.SHOP_DETAIL_THREADS;
+
+/**
+ * 业务线程池配置
+ */
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * 店铺详情聚合查询的线程池，有界队列，队列满时直接拒绝，对应部分按失败处理
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor shopDetailExecutor() {
+        AtomicInteger index = new AtomicInteger();
+        return new ThreadPoolExecutor(SHOP_DETAIL_THREADS, SHOP_DETAIL_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(SHOP_DETAIL_QUEUE_CAPACITY),
+                r -> {
+                    Thread thread = new Thread(r, "shop-detail-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -1,15 +1,20 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.HashSet;
+import java.util.Set;
 
 
 /**
@@ -24,6 +29,12 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 管理员用户id，逗号分隔
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private String adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //token刷新拦截器
@@ -39,5 +50,17 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/code",
                         "/user/login"
                 ).order(1);
+        //管理接口拦截器，删除店铺、补充库存等操作只允许管理员
+        registry.addInterceptor(new AdminInterceptor(parseUserIds(adminUserIds)))
+                .addPathPatterns("/admin/**")
+                .order(2);
+    }
+
+    private static Set<Long> parseUserIds(String userIds) {
+        Set<Long> ids = new HashSet<>();
+        for (String id : StrUtil.split(userIds, ',', true, true)) {
+            ids.add(Long.valueOf(id));
+        }
+        return ids;
     }
 }
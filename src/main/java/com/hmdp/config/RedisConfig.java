@@ -0,0 +1,74 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.ShopChangeListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGE_CHANNEL;
+
+/**
+ * Redis发布订阅配置
+ * 订阅缓存失效频道，收到消息后清除本节点的本地缓存
+ * 订阅店铺变更频道，收到消息后通知本节点的所有ShopChangeListener
+ * 订阅店铺类型变更频道，收到消息后重新加载店铺类型
+ * 订阅秒杀售罄频道，收到消息后更新本节点的售罄标记
+ */
+@Slf4j
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       CacheClient cacheClient,
+                                                                       ObjectProvider<ShopChangeListener> shopChangeListeners,
+                                                                       IShopTypeService shopTypeService,
+                                                                       SeckillSoldOutFlags seckillSoldOutFlags) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        //消息内容为完整的缓存key
+        container.addMessageListener(
+                (message, pattern) -> cacheClient.evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        //消息内容为店铺id
+        container.addMessageListener((message, pattern) -> {
+            Long shopId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+            shopChangeListeners.orderedStream().forEach(listener -> {
+                try {
+                    listener.onShopChanged(shopId);
+                } catch (Exception e) {
+                    log.error("处理店铺变更失败，shopId：{}", shopId, e);
+                }
+            });
+        }, new ChannelTopic(SHOP_CHANGE_CHANNEL));
+        //消息内容为新的版本号，重新加载时会再读取一次
+        container.addMessageListener((message, pattern) -> {
+            try {
+                shopTypeService.refresh();
+            } catch (Exception e) {
+                log.error("刷新店铺类型失败", e);
+            }
+        }, new ChannelTopic(SHOP_TYPE_CHANGE_CHANNEL));
+        //消息内容为 优惠券id:1 或 优惠券id:0
+        container.addMessageListener((message, pattern) -> {
+            try {
+                seckillSoldOutFlags.onMessage(new String(message.getBody(), StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                log.error("处理售罄标记失败", e);
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        return container;
+    }
+}
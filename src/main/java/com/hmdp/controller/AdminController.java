@@ -0,0 +1,120 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.SeckillPreheater;
+import com.hmdp.utils.VoucherOrderStreamConsumer;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 运维接口，只允许配置的管理员访问(AdminInterceptor)
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private VoucherOrderStreamConsumer voucherOrderStreamConsumer;
+
+    @Resource
+    private SeckillPreheater seckillPreheater;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 缓存统计：按前缀的命中率、耗时，以及重建调度器的队列情况
+     */
+    @GetMapping("/cache/stats")
+    public Result queryCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("prefixes", cacheClient.stats());
+        stats.put("rebuild", cacheRebuildScheduler.stats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 当前的热点key
+     */
+    @GetMapping("/cache/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(cacheClient.hotKeys());
+    }
+
+    /**
+     * 修改店铺类型后调用，通知所有节点重新加载
+     */
+    @PostMapping("/shop-type/refresh")
+    public Result refreshShopTypes() {
+        return Result.ok(shopTypeService.publishChange());
+    }
+
+    /**
+     * 删除商铺信息，只允许管理员，不在/shop下的免登录路径中
+     * @param id 商铺id
+     * @return 无
+     */
+    @DeleteMapping("/shop/{id}")
+    public Result deleteShop(@PathVariable("id") Long id) {
+        return shopService.deleteShop(id);
+    }
+
+    /**
+     * 立即预热即将开始的秒杀券，例如直接修改数据库后调用
+     */
+    @PostMapping("/seckill/preheat")
+    public Result preheatSeckill() {
+        return Result.ok(seckillPreheater.preheatAll());
+    }
+
+    /**
+     * 补充秒杀库存，只允许管理员，不在/voucher下的免登录路径中
+     * @param voucherId 秒杀券id
+     * @param amount 增加的库存
+     * @return 无
+     */
+    @PostMapping("/seckill/{id}/stock")
+    public Result replenishSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("库存数量必须大于0");
+        }
+        if (!voucherService.replenishSeckillStock(voucherId, amount)) {
+            return Result.fail("秒杀券不存在");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 订单消息队列：队列长度、消费进度、未确认消息数、各消费者的处理数和处理速度
+     */
+    @GetMapping("/order-stream/stats")
+    public Result queryOrderStreamStats() {
+        return Result.ok(voucherOrderStreamConsumer.stats());
+    }
+}
@@ -1,12 +1,11 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -27,13 +26,26 @@ public class ShopController {
     public IShopService shopService;
 
     /**
-     * 根据id查询商铺信息
+     * 根据id查询商铺信息，支持If-None-Match和If-Modified-Since条件请求
      * @param id 商铺id
-     * @return 商铺详情数据
+     * @return 商铺详情数据，未修改时返回304
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryById(id);
+    public ResponseEntity<byte[]> queryShopById(
+            @PathVariable("id") Long id,
+            @RequestHeader HttpHeaders headers) {
+        return shopService.queryByIdResponse(id).toResponse(headers.getIfNoneMatch().isEmpty() ? null
+                : String.join(",", headers.getIfNoneMatch()), headers.getIfModifiedSince());
+    }
+
+    /**
+     * 店铺详情页聚合查询：店铺、优惠券、热门笔记并行查询
+     * @param id 商铺id
+     * @return 店铺详情，超时的部分为null并记录在missing中
+     */
+    @GetMapping("/{id}/detail")
+    public Result queryShopDetail(@PathVariable("id") Long id) {
+        return shopService.queryShopDetail(id);
     }
 
     /**
@@ -43,10 +55,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库并加入布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -63,7 +73,10 @@ public class ShopController {
     /**
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
-     * @param current 页码
+     * @param current 页码，带游标时忽略
+     * @param sortBy 排序方式：score、sold、price，为空时按距离排序
+     * @param lastDistance 游标：上一页最后一个商铺的距离
+     * @param lastId 游标：上一页最后一个商铺的id
      * @return 商铺列表
      */
     @GetMapping("/of/type")
@@ -71,9 +84,12 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam(value = "x", required = false) Double x,
-            @RequestParam(value = "y", required = false) Double y
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "sortBy", required = false) String sortBy,
+            @RequestParam(value = "lastDistance", required = false) Double lastDistance,
+            @RequestParam(value = "lastId", required = false) Long lastId
     ) {
-        return shopService.queryShopByType(typeId, current, x, y);
+        return shopService.queryShopByType(typeId, current, x, y, sortBy, lastDistance, lastId);
     }
 
     /**
@@ -87,11 +103,17 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        // 查询店铺名称索引
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 根据商铺名称前缀补全
+     * @param prefix 商铺名称前缀
+     * @return 商铺名称列表
+     */
+    @GetMapping("/suggest")
+    public Result suggestShopName(@RequestParam("prefix") String prefix) {
+        return shopService.suggestShopName(prefix);
     }
 }
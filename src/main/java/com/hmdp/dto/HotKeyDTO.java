@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 热点key
+ */
+@Data
+public class HotKeyDTO {
+    private String key;
+    /**
+     * 衰减后的访问次数估算值
+     */
+    private Long count;
+    /**
+     * 是否已晋升为本地副本
+     */
+    private Boolean promoted;
+}
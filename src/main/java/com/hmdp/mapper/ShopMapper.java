@@ -2,6 +2,8 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 /**
  * <p>
@@ -13,4 +15,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    /**
+     * 按销量流式查询热门店铺，需要在事务内遍历游标
+     */
+    Cursor<Shop> scanHotShops(@Param("limit") int limit);
+
+    /**
+     * 流式查询所有店铺的类型和坐标，需要在事务内遍历游标
+     */
+    Cursor<Shop> scanShopLocations();
 }
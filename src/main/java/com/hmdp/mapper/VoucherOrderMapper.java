@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +17,15 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 插入订单，同一用户同一优惠券的订单已存在时忽略(唯一索引uk_user_voucher)
+     * @return 实际插入的订单数
+     */
+    int insertIgnore(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * 当前连接上一条语句的警告，INSERT IGNORE把所有错误都降级为警告，需要在同一事务中检查
+     * @return 每条警告的Level、Code、Message
+     */
+    List<Map<String, Object>> showWarnings();
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -26,4 +28,6 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryBlogOfFollow(Long max, Integer offset);
 
+    List<Blog> queryTopBlogsOfShop(Long shopId, int limit);
+
 }
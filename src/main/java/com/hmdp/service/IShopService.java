@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.utils.CachedResponse;
 
 /**
  * <p>
@@ -16,7 +17,23 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    /**
+     * 预先序列化好的店铺响应，ETag和Last-Modified由更新时间生成
+     */
+    CachedResponse queryByIdResponse(Long id);
+
+    Result queryShopDetail(Long id);
+
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    Result deleteShop(Long id);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String sortBy,
+                           Double lastDistance, Long lastId);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result suggestShopName(String prefix);
 }
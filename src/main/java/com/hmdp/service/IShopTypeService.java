@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.utils.CachedResponse;
 
 /**
  * <p>
@@ -15,4 +16,20 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
+
+    /**
+     * 预先序列化好的类型列表响应
+     */
+    CachedResponse queryTypeListResponse();
+
+    /**
+     * 版本号变化时重新加载类型列表
+     */
+    void refresh();
+
+    /**
+     * 类型变化后调用：版本号加一并通知所有节点重新加载
+     * @return 新的版本号
+     */
+    long publishChange();
 }
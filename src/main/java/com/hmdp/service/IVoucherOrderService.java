@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * <p>
  *  服务类
@@ -16,6 +19,21 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    /**
+     * 处理消息队列中的订单
+     */
+    void handleVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量处理消息队列中的订单，按优惠券分组扣减库存、批量插入，整组失败时逐条处理
+     * @return 处理失败、需要重试的订单id
+     */
+    Set<Long> handleVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 同一优惠券的一批订单：批量插入订单(已存在的忽略)，按实际插入的数量一次扣减库存
+     */
+    void createVoucherOrderBatch(Long voucherId, List<VoucherOrder> voucherOrders);
 
     void createVoucherOrder(VoucherOrder voucherOrder);
 }
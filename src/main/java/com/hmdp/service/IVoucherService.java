@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,7 +18,19 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    List<Voucher> listVoucherOfShop(Long shopId);
+
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
 
+    /**
+     * 补充秒杀库存，同时增加Redis中的库存并清除各节点的售罄标记
+     * @param amount 增加的库存，必须大于0
+     * @return 秒杀券不存在时返回false
+     * @throws IllegalArgumentException amount不是正数
+     */
+    boolean replenishSeckillStock(Long voucherId, int amount);
+
 
 }
@@ -16,6 +16,7 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
@@ -24,14 +25,21 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL_JITTER;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
@@ -54,6 +62,15 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @PostConstruct
+    private void init() {
+        //热门笔记列表一次批量写入多个key，TTL添加随机值，防止同时过期
+        cacheClient.setTtlJitter(CACHE_BLOG_KEY, CACHE_BLOG_TTL_JITTER);
+    }
+
     @Override
     public Result queryBlogById(Long id) {
        //1.查询Blog
@@ -85,12 +102,15 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
+        // 只查询当前页的id，不统计总数
         Page<Blog> page = query()
+                .select("id")
                 .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        List<Long> ids = page.getRecords().stream().map(Blog::getId).collect(Collectors.toList());
+        // 根据id批量查询缓存，未命中的一次查询数据库
+        List<Blog> records = cacheClient.queryBatch(
+                CACHE_BLOG_KEY, ids, Blog.class, this::listBlogsByIds, CACHE_BLOG_TTL, TimeUnit.MINUTES);
         // 查询用户
         records.forEach(blog -> {
             this.queryBlogUser(blog);
@@ -99,6 +119,29 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(records);
     }
 
+    @Override
+    public List<Blog> queryTopBlogsOfShop(Long shopId, int limit) {
+        // 只查询点赞数最高的几篇笔记的id
+        List<Long> ids = query()
+                .select("id")
+                .eq("shop_id", shopId)
+                .orderByDesc("liked")
+                .last("LIMIT " + limit)
+                .list()
+                .stream().map(Blog::getId).collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 根据id批量查询缓存，未命中的一次查询数据库
+        List<Blog> records = cacheClient.queryBatch(
+                CACHE_BLOG_KEY, ids, Blog.class, this::listBlogsByIds, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        records.forEach(blog -> {
+            this.queryBlogUser(blog);
+            this.isBlogLiked(blog);
+        });
+        return records;
+    }
+
     /**
      * 点赞
      * @param id
@@ -118,6 +161,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //3.2保存用户到Redis的zset集合 zadd key value score
             if(isSuccess) {
                 stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+                //点赞数变化，删除笔记缓存
+                cacheClient.evict(CACHE_BLOG_KEY + id);
             }
         } else {
             //4.如果已点赞，取消点赞
@@ -126,6 +171,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //4.2把用户从Redis的set中移除
             if(isSuccess) {
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+                cacheClient.evict(CACHE_BLOG_KEY + id);
             }
         }
         return Result.ok();
@@ -230,11 +276,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
-        //5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list();
+        //5.根据id批量查询blog，优先读取缓存，结果与ids顺序一致
+        List<Blog> blogs = cacheClient.queryBatch(
+                CACHE_BLOG_KEY, ids, Blog.class, this::listBlogsByIds, CACHE_BLOG_TTL, TimeUnit.MINUTES);
 
         for (Blog blog : blogs) {
             //5.1.查询Bolg对应的User
@@ -251,6 +295,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(scrollResult);
     }
 
+    private Map<Long, Blog> listBlogsByIds(List<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+    }
+
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
         User user = userService.getById(userId);
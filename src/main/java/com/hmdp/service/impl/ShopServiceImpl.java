@@ -1,19 +1,37 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopDetailDTO;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.IBlogService;
 import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CachedResponse;
+import com.hmdp.utils.CacheInvalidationPipeline;
+import com.hmdp.utils.GeoGridIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoSync;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopRankIndex;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -22,14 +40,23 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -48,6 +75,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * 测试缓存穿透时显示服务端异常：Redis客户端输入：
  * config set stop-writes-on-bgsave-error no
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -57,6 +85,70 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheInvalidationPipeline cacheInvalidationPipeline;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopGeoSync shopGeoSync;
+
+    @Resource
+    private ShopRankIndex shopRankIndex;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private ThreadPoolExecutor shopDetailExecutor;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    /**
+     * 已序列化的店铺响应，key为店铺id
+     */
+    private final Cache<Long, ShopResponse> shopResponseCache =
+            CacheUtil.newLRUCache(SystemConstants.SHOP_RESPONSE_CACHE_SIZE);
+
+    /**
+     * 序列化时的店铺副本和对应的响应，店铺内容不变时复用响应
+     */
+    private static class ShopResponse {
+        private final Shop shop;
+        private final CachedResponse response;
+
+        private ShopResponse(Shop shop, CachedResponse response) {
+            this.shop = shop;
+            this.response = response;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        //热点店铺开启本地缓存
+        cacheClient.enableLocalCache(CACHE_SHOP_KEY, CACHE_SHOP_LOCAL_SIZE, CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        //TTL添加随机值，防止缓存雪崩
+        cacheClient.setTtlJitter(CACHE_SHOP_KEY, CACHE_SHOP_TTL_JITTER);
+        //限制同时重建的店铺缓存数，大量key同时过期时不会占满数据库连接
+        cacheClient.setRebuildConcurrency(CACHE_SHOP_KEY, CACHE_SHOP_REBUILD_CONCURRENCY);
+        //大促时单个店铺访问量很高，热点店铺自动在本地保存副本，减轻Redis单分片压力
+        cacheClient.enableHotKeyReplica(CACHE_SHOP_KEY, Shop.class);
+        //根据tb_shop全量id构建布隆过滤器，防止缓存穿透
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, BLOOM_SHOP_EXPECTED, BLOOM_SHOP_FPP, this::listShopIds);
+    }
+
+    private Collection<?> listShopIds() {
+        return listObjs(new QueryWrapper<Shop>().select("id"));
+    }
+
     @Override
     public Result queryById(Long id) {
         //缓存穿透解决方案
@@ -64,13 +156,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 //                .queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         //Shop shop = queryWithPassThrough(id);
 
-        //互斥锁解决缓存击穿
-//        Shop shop = queryWithMutex(id);
         Shop shop = cacheClient
-                .queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY, this::getById, 20L, TimeUnit.SECONDS);
-
-        //逻辑过期解决缓存击穿
-//        Shop shop = queryWithLogicExpire(id);
+                .queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY, this::getById, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
 
         if(shop == null) {
             Result.fail("店铺不存在");
@@ -79,119 +166,89 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
-    /**
-     * 逻辑过期时间实现缓存击穿避免
-     * @param id
-     * @return
-     */
-    /*public Shop queryWithLogicExpire(Long id) {
-        //缓存穿透解决方案
-        String key = CACHE_SHOP_KEY + id;
-        //1.从Redis查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        //2.判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
-            //3.存在，直接返回
-            return null;
+    @Override
+    public CachedResponse queryByIdResponse(Long id) {
+        //1.查询店铺，与queryById相同
+        Shop shop = cacheClient
+                .queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY, this::getById, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
+        if (shop == null) {
+            return CachedResponse.of(objectMapper, Result.fail("店铺不存在"));
+        }
+        //2.按id读取已序列化的响应，店铺内容与序列化时完全相同才复用
+        //  更新时间只精确到秒，不能作为版本，内容变化时ETag(响应体摘要)一定变化
+        ShopResponse cached = shopResponseCache.get(id);
+        if (cached != null && cached.shop.equals(shop)) {
+            return cached.response;
         }
+        //3.内容变化或未缓存，重新序列化；保存副本，避免共享的店铺对象被修改后误判为未变化
+        long lastModified = shop.getUpdateTime() == null ? -1
+                : shop.getUpdateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        CachedResponse response = CachedResponse.of(objectMapper, Result.ok(shop), lastModified);
+        shopResponseCache.put(id, new ShopResponse(BeanUtil.copyProperties(shop, Shop.class), response));
+        return response;
+    }
 
-        //4.命中，需要判断过期时间
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            //5.1 未过期，直接返回店铺信息
-            return shop;
+    @Override
+    public Result queryShopDetail(Long id) {
+        long start = System.nanoTime();
+        //1.店铺、优惠券、笔记在线程池中并行查询
+        Future<Shop> shopFuture = submitDetail(() -> cacheClient.queryWithLogicExpire(
+                CACHE_SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY, this::getById, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS));
+        Future<List<Voucher>> voucherFuture = submitDetail(() -> voucherService.listVoucherOfShop(id));
+        Future<List<Blog>> blogFuture = submitDetail(
+                () -> blogService.queryTopBlogsOfShop(id, SystemConstants.SHOP_DETAIL_BLOG_SIZE));
+
+        //2.各部分从同一起点开始计算超时，总耗时取决于最慢的一部分，超时或失败的部分返回null
+        ShopDetailDTO detail = new ShopDetailDTO();
+        detail.setShop(awaitDetail(id, "shop", shopFuture, start, SystemConstants.SHOP_DETAIL_SHOP_TIMEOUT_MILLIS, detail));
+        detail.setVouchers(awaitDetail(id, "vouchers", voucherFuture, start, SystemConstants.SHOP_DETAIL_VOUCHER_TIMEOUT_MILLIS, detail));
+        detail.setBlogs(awaitDetail(id, "blogs", blogFuture, start, SystemConstants.SHOP_DETAIL_BLOG_TIMEOUT_MILLIS, detail));
+
+        //3.店铺查询成功但不存在
+        if (detail.getShop() == null && !detail.getMissing().contains("shop")) {
+            return Result.fail("店铺不存在");
         }
-        //5.2已过期，需要缓存重建
-
-        //6.缓存重建
-        //6.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //6.2 判断是否获取成功
-        if(isLock) {
-            // TODO 6.3 成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+        return Result.ok(detail);
+    }
+
+    /**
+     * 提交到详情线程池，登录用户传递到工作线程；线程池已满时返回失败的Future
+     */
+    private <T> Future<T> submitDetail(Callable<T> task) {
+        UserDTO user = UserHolder.getUser();
+        try {
+            return shopDetailExecutor.submit(() -> {
+                UserHolder.saveUser(user);
                 try {
-                    //重建缓存
-                    this.saveShop2Redis(id, 20L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    return task.call();
                 } finally {
-                    //释放锁
-                    unLock(lockKey);
+                    UserHolder.removeUser();
                 }
             });
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
+    }
 
-        //6.4 返回商铺信息
-        return shop;
-    }*/
-
-    /**
-     * 互斥锁实现缓存击穿避免
-     * @param id
-     * @return
-     */
-   /* public Shop queryWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        //1.从Redis查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        //2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            //3.存在，直接返回
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
-        }
-        //判断命中的是否是空值
-        if(shopJson != null) {
-            // 返回一个错误信息
-            return null;
-        }
-
-        //4.实现缓存重建
-        //4.1 获取互斥锁
-        String lockKey = "lock:shop" + id;
-        Shop shop = null;
+    private <T> T awaitDetail(Long id, String part, Future<T> future, long start, long timeoutMillis, ShopDetailDTO detail) {
+        long remaining = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
         try {
-            boolean isLock = tryLock(lockKey);
-            //4.2 判断是否获取成功
-            if(!isLock) {
-                //4.3 失败，则休眠并重试
-                Thread.sleep(50);
-                queryWithPassThrough(id);//有栈溢出风险
-            }
-
-            //4.4 成功，根据id查询数据库
-            shop = getById(id);
-            //模拟重建的延时
-            Thread.sleep(200);
-
-            //5.不存在，返回错误
-            if(shop == null) {
-                //将空值写入Redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                //返回错误信息
-                return null;
-            }
-            //6.存在，写入redis
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            return future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            //不中断正在执行的数据库或Redis调用，结果直接丢弃
+            future.cancel(false);
+            log.warn("店铺详情查询超时，id：{}，部分：{}", id, part);
         } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            //7. 释放互斥锁
-            unLock(lockKey);
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+        } catch (ExecutionException e) {
+            log.error("店铺详情查询失败，id：{}，部分：{}", id, part, e.getCause());
         }
-
-        //8.返回
-        return shop;
-    }*/
+        detail.getMissing().add(part);
+        return null;
+    }
 
     /**
      * 缓存穿透解决方案
@@ -231,17 +288,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
-   /* private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        //拆箱底层就是调用booleanValue()方法，如果flag为null的话就会空指针异常
-        //isTrue:只有当flag是true才是true，flag为false和null都返回false
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unLock(String key) {
-        stringRedisTemplate.delete(key);
-    }*/
-
     public void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
         //1.查询店铺数据
         Shop shop = getById(id);
@@ -254,6 +300,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        // 清除该id之前可能缓存的空值
+        cacheInvalidationPipeline.drainAfterCommit();
+        // 通知所有节点更新店铺索引
+        publishShopChange(shop.getId());
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Transactional
     @Override
     public Result update(Shop shop) {
@@ -263,20 +323,83 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空");
         }
 
-        //1. 更新数据库
+        //1. 更新数据库，更新时间由数据库生成，忽略客户端传入的值
+        shop.setUpdateTime(null);
         updateById(shop);
 
-        //2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2. 触发器已在同一事务中写入发件箱，事务提交后再删除缓存，同时通知所有节点清除本地缓存
+        cacheInvalidationPipeline.drainAfterCommit();
+        //3. 事务提交后通知所有节点更新店铺索引
+        publishShopChange(id);
 
         return Result.ok();
     }
 
+    @Transactional
+    @Override
+    public Result deleteShop(Long id) {
+        //1. 删除数据库
+        if (!removeById(id)) {
+            return Result.fail("店铺不存在");
+        }
+        //2. 事务提交后删除缓存，并通知所有节点从店铺索引中移除
+        cacheInvalidationPipeline.drainAfterCommit();
+        publishShopChange(id);
+        return Result.ok();
+    }
+
+    /**
+     * 事务提交后同步Redis GEO，并广播店铺变更，保证其他节点能读到新数据
+     * 不在事务中时立即执行
+     */
+    private void publishShopChange(Long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            onShopCommitted(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                onShopCommitted(id);
+            }
+        });
+    }
+
+    private void onShopCommitted(Long id) {
+        try {
+            shopGeoSync.sync(id);
+        } catch (Exception e) {
+            //定时对账会修复
+            log.error("店铺地理位置同步失败，id：{}", id, e);
+        }
+        stringRedisTemplate.convertAndSend(SHOP_CHANGE_CHANNEL, id.toString());
+    }
+
+    private Map<Long, Shop> listShopsByIds(List<Long> ids) {
+        Map<Long, Shop> shopMap = new HashMap<>(ids.size());
+        for (Shop shop : listByIds(ids)) {
+            shopMap.put(shop.getId(), shop);
+        }
+        return shopMap;
+    }
+
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String sortBy,
+                                  Double lastDistance, Long lastId) {
+        ShopRankIndex.SortBy sort = null;
+        if (StrUtil.isNotBlank(sortBy)) {
+            sort = ShopRankIndex.SortBy.of(sortBy);
+            if (sort == null) {
+                return Result.fail("不支持的排序方式");
+            }
+        }
 
         //1.判断是否需要根据坐标查询
         if(x == null || y == null) {
+            if (sort != null) {
+                //按排行查询
+                return queryShopByRank(typeId, current, sort);
+            }
             //不需要坐标查询，按数据库查询
             Page<Shop> shopPage = query()
                     .eq("type_id", typeId)
@@ -285,48 +408,150 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.ok(shopPage.getRecords());
         }
 
-        //2. 计算分页参数
-        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
-        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-
-        //3. 查询redis、按照距离排序、分页。结果：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()//GEOSEARCH BYMEMBER(BYLONLAT X Y) BYRADIUS 10 WITHDISTANCE
-                .search(
-                        key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance()
-                                .limit(end));
+        //2. 计算分页参数，带游标时只查询游标之后的一页，按排行排序时游标不适用
+        boolean byCursor = sort == null && lastDistance != null && lastId != null;
+        int from = byCursor ? 0 : (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = byCursor ? SystemConstants.DEFAULT_PAGE_SIZE : current * SystemConstants.DEFAULT_PAGE_SIZE;
+
+        //3. 查询本地地理位置索引、按照距离排序、分页，索引不可用时查询redis。结果：shopId、distance
+        List<GeoGridIndex.Hit> list;
+        if (sort != null) {
+            //半径内的所有店铺按排行排序，排行索引不可用时保持距离顺序
+            list = shopGeoIndex.isReady()
+                    ? shopGeoIndex.search(typeId.longValue(), x, y, SystemConstants.SHOP_GEO_RADIUS, Integer.MAX_VALUE)
+                    : searchGeoFromRedis(typeId, x, y, Integer.MAX_VALUE);
+            if (shopRankIndex.isReady()) {
+                list = shopRankIndex.sort(list, sort);
+            }
+            list = list.subList(0, Math.min(end, list.size()));
+        } else if (byCursor) {
+            list = shopGeoIndex.isReady()
+                    ? shopGeoIndex.searchAfter(typeId.longValue(), x, y, SystemConstants.SHOP_GEO_RADIUS, lastDistance, lastId, end)
+                    : searchGeoAfterFromRedis(typeId, x, y, lastDistance, lastId, end);
+        } else {
+            list = shopGeoIndex.isReady()
+                    ? shopGeoIndex.search(typeId.longValue(), x, y, SystemConstants.SHOP_GEO_RADIUS, end)
+                    : searchGeoFromRedis(typeId, x, y, end);
+        }
 
         //4. 解析出id
-        if (results == null) {
-            return Result.ok(Collections.emptyList());
-        }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
         if(list.size() <= from) {
             //没有下一页结束
             return Result.ok(Collections.emptyList());
         }
         //4.1 截取 from - end 的部分
         List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            //4.2.获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            //4.3.获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
+        Map<Long, Double> distanceMap = new HashMap<>(list.size());
+        list.stream().skip(from).forEach(hit -> {
+            //4.2.获取店铺id和距离
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
         });
 
-        //5.根据id查询shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD( id, " + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        //5.根据id批量查询shop，优先读取缓存，未命中的一次查询数据库
+        List<Shop> cachedShops = cacheClient.queryBatchWithLogicExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listShopsByIds, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
+        List<Shop> shops = new ArrayList<>(cachedShops.size());
+        for (Shop cached : cachedShops) {
+            //缓存对象可能来自本地缓存，复制后再设置距离
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
+            shop.setDistance(distanceMap.get(shop.getId()));
+            shops.add(shop);
         }
         //6.返回
         return Result.ok(shops);
     }
+
+    /**
+     * 分类页按排行分页，从排行索引中读取店铺id，索引不可用时按数据库排序
+     */
+    private Result queryShopByRank(Integer typeId, Integer current, ShopRankIndex.SortBy sort) {
+        if (!shopRankIndex.isReady()) {
+            String column = sort == ShopRankIndex.SortBy.PRICE ? "avg_price" : sort.name().toLowerCase();
+            Page<Shop> shopPage = query()
+                    .eq("type_id", typeId)
+                    .orderBy(true, sort == ShopRankIndex.SortBy.PRICE, column)
+                    .orderByAsc("id")
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            return Result.ok(shopPage.getRecords());
+        }
+        List<Long> ids = shopRankIndex.top(typeId.longValue(), sort,
+                (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE, SystemConstants.DEFAULT_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        //根据id批量查询shop，优先读取缓存，结果保持排行顺序
+        List<Shop> shops = cacheClient.queryBatchWithLogicExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listShopsByIds, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1.索引不可用时按数据库查询
+        if (!shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        //2.从名称索引查询当前页的店铺id
+        List<Long> ids = shopNameIndex.search(name, (current - 1) * SystemConstants.MAX_PAGE_SIZE, SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        //3.根据id批量查询shop，优先读取缓存，结果保持索引中的顺序
+        List<Shop> shops = cacheClient.queryBatchWithLogicExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listShopsByIds, CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result suggestShopName(String prefix) {
+        return Result.ok(shopNameIndex.suggest(prefix, SystemConstants.SHOP_NAME_SUGGEST_SIZE));
+    }
+
+    /**
+     * 通过Redis GEOSEARCH按游标查询，本地索引不可用时使用
+     * Redis不支持从指定距离开始查询，查出半径内的全部店铺后跳过游标之前的部分
+     */
+    private List<GeoGridIndex.Hit> searchGeoAfterFromRedis(Integer typeId, Double x, Double y,
+                                                           double lastDistance, long lastId, int limit) {
+        List<GeoGridIndex.Hit> hits = searchGeoFromRedis(typeId, x, y, Integer.MAX_VALUE);
+        //距离相同时按id排序，与游标的顺序一致
+        hits.sort(Comparator.comparingDouble(GeoGridIndex.Hit::getDistance).thenComparingLong(GeoGridIndex.Hit::getId));
+        List<GeoGridIndex.Hit> page = new ArrayList<>(limit);
+        for (GeoGridIndex.Hit hit : hits) {
+            if (hit.getDistance() < lastDistance || (hit.getDistance() == lastDistance && hit.getId() <= lastId)) {
+                continue;
+            }
+            page.add(hit);
+            if (page.size() == limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 通过Redis GEOSEARCH查询附近的店铺，本地索引不可用时使用
+     */
+    private List<GeoGridIndex.Hit> searchGeoFromRedis(Integer typeId, Double x, Double y, int end) {
+        String key = SHOP_GEO_KEY + typeId;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()//GEOSEARCH BYMEMBER(BYLONLAT X Y) BYRADIUS 10 WITHDISTANCE
+                .search(
+                        key,
+                        GeoReference.fromCoordinate(x, y),
+                        new Distance(SystemConstants.SHOP_GEO_RADIUS),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance()
+                                .sortAscending().limit(end));
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<GeoGridIndex.Hit> hits = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+            hits.add(new GeoGridIndex.Hit(Long.parseLong(result.getContent().getName()), result.getDistance().getValue()));
+        }
+        return hits;
+    }
 }
@@ -2,57 +2,134 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CachedResponse;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.Collections;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KET;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 店铺类型几乎不变，每个节点在内存中保存一份不可变的快照，包括预先序列化好的响应
+ * 版本号保存在Redis中，类型变化时版本号加一并广播，各节点收到后重新加载；定时检查版本号兜底
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void init() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            //加载失败时第一次请求再加载
+            log.error("店铺类型加载失败", e);
+        }
+    }
+
     @Override
     public Result queryTypeList() {
-        //1.查询redis中有无数据
-        String key = CACHE_SHOPTYPE_KET;
-        String shopTypeJson = stringRedisTemplate.opsForValue().get(key);
-        //2.如果有返回数据
-        if (StrUtil.isNotBlank(shopTypeJson)) {
-            List<ShopType> shopTypes = JSONUtil.toList(shopTypeJson, ShopType.class);
-            return Result.ok(shopTypes);
+        //1.读取内存中的快照
+        Snapshot current = currentSnapshot();
+        //2.快照中没有数据，返回错误值
+        if (CollectionUtil.isEmpty(current.types)) {
+            return Result.fail("店铺列表不存在!");
         }
-        //3.如果没有，查询数据库中数据
+        return Result.ok(current.types);
+    }
+
+    @Override
+    public CachedResponse queryTypeListResponse() {
+        return currentSnapshot().response;
+    }
+
+    @Override
+    public synchronized void refresh() {
+        //1.先读版本号再查询数据库，期间版本号变化时下一次检查会再次加载
+        //  版本号不同就重新加载，而不是只在变大时加载：Redis中的key丢失后计数从0重新开始，仍然能够刷新
+        long version = currentVersion();
+        if (snapshot != null && snapshot.version == version) {
+            return;
+        }
+        //2.查询数据库
         List<ShopType> shopTypes = query().orderByAsc("sort").list();
+        //3.生成新的快照并替换
+        Result result = CollectionUtil.isEmpty(shopTypes) ? Result.fail("店铺列表不存在!") : Result.ok(shopTypes);
+        snapshot = new Snapshot(version, shopTypes, CachedResponse.of(objectMapper, result));
+        log.info("店铺类型已加载，版本：{}，类型数：{}", version, shopTypes.size());
+    }
 
-        //4.如果没有，返回错误值
-        if(CollectionUtil.isEmpty(shopTypes)) {
-            return Result.fail("店铺列表不存在!");
+    @Override
+    public long publishChange() {
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOPTYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANGE_CHANNEL, String.valueOf(version));
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * 广播丢失时的兜底，只读取一次版本号
+     */
+    @Scheduled(fixedDelay = SHOP_TYPE_VERSION_CHECK_MILLIS)
+    public void checkVersion() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("店铺类型刷新失败", e);
         }
+    }
 
-        //4.如果有，写入redis缓存
-        String jsonStr = JSONUtil.toJsonStr(shopTypes);
-        stringRedisTemplate.opsForValue().set(key, jsonStr);
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            refresh();
+            current = snapshot;
+        }
+        return current;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOPTYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     * 不可变快照，替换引用即可整体更新
+     */
+    private static class Snapshot {
+        private final long version;
+        private final List<ShopType> types;
+        private final CachedResponse response;
 
-        //6.返回值
-        return Result.ok(shopTypes);
+        Snapshot(long version, List<ShopType> types, CachedResponse response) {
+            this.version = version;
+            this.types = Collections.unmodifiableList(types);
+            this.response = response;
+        }
     }
 }
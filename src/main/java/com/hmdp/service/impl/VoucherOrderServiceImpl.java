@@ -7,10 +7,11 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillPreheater;
+import com.hmdp.utils.SeckillShards;
+import com.hmdp.utils.SeckillSoldOutFlags;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -18,13 +19,17 @@ import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS;
 
 /**
  * <p>
@@ -61,181 +66,236 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillSoldOutFlags seckillSoldOutFlags;
+
+    @Resource
+    private SeckillPreheater seckillPreheater;
+
+    /**
+     * MySQL唯一索引冲突的错误码
+     */
+    private static final int ER_DUP_ENTRY = 1062;
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_TAKE_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_COMMIT_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_RELEASE_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
+        STOCK_TAKE_SCRIPT = new DefaultRedisScript<>();
+        STOCK_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        STOCK_TAKE_SCRIPT.setResultType(Long.class);
+        SECKILL_COMMIT_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_COMMIT_SCRIPT.setLocation(new ClassPathResource("seckill_commit.lua"));
+        SECKILL_COMMIT_SCRIPT.setResultType(Long.class);
+        STOCK_RELEASE_SCRIPT = new DefaultRedisScript<>();
+        STOCK_RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_release.lua"));
+        STOCK_RELEASE_SCRIPT.setResultType(Long.class);
     }
 
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    private IVoucherOrderService proxy;
-
     @Override
     public Result seckillVoucher(Long voucherId) {
-        //1.执行lua脚本，尝试判断用户是否有购买资格
+        //0.本节点已知售罄时直接返回，不访问Redis
+        if (seckillSoldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        //0.本节点预热过的秒杀券，未开始或已结束时直接返回
+        int window = seckillPreheater.checkWindow(voucherId);
+        if (window != SeckillPreheater.WINDOW_OPEN) {
+            return windowFail(window);
+        }
         Long userId = UserHolder.getUser().getId();
+        //1.订单id
+        long orderId = redisIdWorker.nextId("order");
+        //2.在用户所属的分片上执行lua脚本，判断用户是否有购买资格，有资格时在脚本中把订单发送到该分片的消息队列
+        int home = SeckillShards.homeShard(userId);
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
-                Collections.emptyList(),
+                Arrays.asList(SeckillShards.stockKey(voucherId, home), SeckillShards.orderKey(voucherId, home),
+                        SeckillShards.streamKey(home), SeckillShards.metaKey(voucherId, home)),
                 voucherId.toString(),
-                userId.toString()
+                userId.toString(),
+                String.valueOf(orderId)
         );
         int r = result.intValue();
-        //2.判断结果是否为0
+        if (r == 1) {
+            //所属分片库存不足，从其他分片扣减
+            r = seckillFromSiblings(voucherId, userId, orderId, home);
+        }
+        //3.判断结果是否为0
         if(r != 0) {
-            //2.1.不为0，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            //3.1.不为0，代表没有购买资格
+            if (r == 1) {
+                //库存不足，标记售罄并通知其他节点
+                seckillSoldOutFlags.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+            if (r == 2) {
+                return Result.fail("不能重复下单");
+            }
+            return windowFail(r);
         }
-        //2.2.为0，有购买资格，把下单信息保存到阻塞队列
-//        long orderId = redisIdWorker.nextId("order");
-        VoucherOrder voucherOrder = new VoucherOrder();
-        //TODO 保存阻塞队列
-        //2.3 订单id
-        long orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        //2.4 用户id
-        voucherOrder.setUserId(userId);
-        //2.5 代金券id
-        voucherOrder.setVoucherId(voucherId);
-        //2.6 放入阻塞队列
-        orderTasks.add(voucherOrder);
-
-        //3.获取代理对象
-        //获取代理对象（事务）
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
-        //3.返回订单id
+        //3.2.为0，有购买资格，订单已进入消息队列，由VoucherOrderStreamConsumer异步创建
+        //4.返回订单id
         return Result.ok(orderId);
     }
 
-    /*@Override
-    public Result seckillVoucher(Long voucherId) {
-        //1.查询
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        //2.判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            //尚未开始
-            return Result.fail("秒杀尚未开始！");
-        }
-        //3.判断秒杀是否结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            //尚未开始
+    /**
+     * 时间窗口不满足时的返回值：3未预热，4尚未开始，5已经结束
+     */
+    private static Result windowFail(int r) {
+        if (r == SeckillPreheater.WINDOW_ENDED) {
             return Result.fail("秒杀已经结束！");
         }
-        //4.判断库存是否充足
-        if (voucher.getStock() < 1) {
-            // 库存不足
-            return Result.fail("库存不足！");
+        return Result.fail("秒杀尚未开始！");
+    }
 
+    /**
+     * 依次尝试其他分片的库存，扣到库存后在用户所属的分片上记录用户并发送订单
+     * 扣减时在该分片上记录一条未确认的扣减，下单后删除；两步之间节点宕机或超时留下的记录由SeckillTakeReconciler处理
+     * @return 0成功，1所有分片库存不足，2重复下单
+     */
+    private int seckillFromSiblings(Long voucherId, Long userId, long orderId, int home) {
+        String member = SeckillShards.takenMember(voucherId, userId, orderId);
+        for (int i = 1; i < SECKILL_STOCK_SHARDS; i++) {
+            int shard = (home + i) % SECKILL_STOCK_SHARDS;
+            //1.扣减其他分片的库存，同时记录这次扣减
+            Long taken = stringRedisTemplate.execute(
+                    STOCK_TAKE_SCRIPT,
+                    Arrays.asList(SeckillShards.stockKey(voucherId, shard), SeckillShards.takenKey(shard)),
+                    member
+            );
+            if (taken == null || taken != 0) {
+                continue;
+            }
+            //2.在所属分片上记录用户并发送订单，失败时扣减记录留给对账任务
+            Long committed = stringRedisTemplate.execute(
+                    SECKILL_COMMIT_SCRIPT,
+                    Arrays.asList(SeckillShards.orderKey(voucherId, home), SeckillShards.streamKey(home)),
+                    voucherId.toString(),
+                    userId.toString(),
+                    String.valueOf(orderId)
+            );
+            boolean success = committed != null && committed == 0;
+            //3.删除扣减记录，并发的请求已经下单时归还库存
+            releaseTaken(voucherId, shard, member, !success);
+            return success ? 0 : 2;
         }
+        return 1;
+    }
 
-        Long userId = UserHolder.getUser().getId();
-
-        //创建锁对象
-//        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "order:" + userId);
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        //获取锁
-//        boolean isLock = lock.tryLock(1200);
-        //尝试获取锁，参数分别是:获取锁的最大等待时间（期间会重试)，锁自动释放时间，时间单位
-        boolean isLock = lock.tryLock();
-        //判断是否获取锁成功
-        if(!isLock) {
-            //获取锁失败，返回错误信息或重试
-            return Result.fail("不允许重复下单！");
-        }
+    /**
+     * 确认或归还从其他分片扣减的库存，失败时只记录日志，记录还在，由SeckillTakeReconciler处理
+     */
+    private void releaseTaken(Long voucherId, int shard, String member, boolean refund) {
         try {
-            //获取代理对象（事务）
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-        } catch (IllegalStateException e) {
-            throw new RuntimeException(e);
-        }finally {
-            lock.unlock();
+            stringRedisTemplate.execute(
+                    STOCK_RELEASE_SCRIPT,
+                    Arrays.asList(SeckillShards.takenKey(shard), SeckillShards.stockKey(voucherId, shard)),
+                    member,
+                    refund ? "1" : "0"
+            );
+        } catch (Exception e) {
+            log.error("删除分片{}的扣减记录{}失败，由对账任务处理", shard, member, e);
         }
-
-        *//*synchronized(userId.toString().intern()) {
-            //获取代理对象（事务）
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-        }*//*
-    }*/
-
-    @PostConstruct
-    private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
     }
-    private class VoucherOrderHandler implements Runnable {
-
-        @Override
-        public void run() {
-            while(true) {
-                try {
-                    //1.获取队列中的异步订单
-                    VoucherOrder take = orderTasks.take();
-                    //2.创建订单
-                    handleVoucherOrder(take);
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
+
+    @Override
+    public Set<Long> handleVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Set<Long> failed = new HashSet<>();
+        if (voucherOrders.isEmpty()) {
+            return failed;
+        }
+        //获取代理对象（事务）
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        //1.按优惠券分组，每组一个事务：订单批量插入，按实际插入的数量扣减库存
+        Map<Long, List<VoucherOrder>> byVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            try {
+                proxy.createVoucherOrderBatch(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                //2.整组失败时逐条处理，单个订单的失败不影响其他订单
+                log.warn("批量创建订单失败，改为逐条创建，voucherId：{}，订单数：{}，原因：{}",
+                        entry.getKey(), entry.getValue().size(), e.getMessage());
+                for (VoucherOrder voucherOrder : entry.getValue()) {
+                    try {
+                        handleVoucherOrder(voucherOrder);
+                    } catch (Exception ex) {
+                        log.error("创建订单失败，orderId：{}", voucherOrder.getId(), ex);
+                        failed.add(voucherOrder.getId());
+                    }
                 }
             }
         }
+        return failed;
     }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //1.获取用户
-        Long userId = voucherOrder.getUserId();
-        //2.创建锁对象
-//        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "order:" + userId);
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        //3.获取锁
-//        boolean isLock = lock.tryLock(1200);
-        //尝试获取锁，参数分别是:获取锁的最大等待时间（期间会重试)，锁自动释放时间，时间单位
-        boolean isLock = lock.tryLock();
-        //4.判断是否获取锁成功
-        if(!isLock) {
-            //获取锁失败，返回错误信息或重试
-            log.error("不允许重复下单");
+    @Override
+    @Transactional
+    public void createVoucherOrderBatch(Long voucherId, List<VoucherOrder> voucherOrders) {
+        //1.批量插入订单，一人一单由唯一索引保证，重复的订单(消息重复投递)被忽略
+        int n = getBaseMapper().insertIgnore(voucherOrders);
+        checkOnlyDuplicatesIgnored();
+        if (n == 0) {
             return;
         }
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            lock.unlock();
+        //2.按实际插入的数量一次扣减库存 set stock = stock - n where voucher_id = ? and stock >= n
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + n)
+                .eq("voucher_id", voucherId)
+                .ge("stock", n)
+                .update();
+        if (!success) {
+            //回滚整批，由调用方逐条处理
+            throw new IllegalStateException("库存不足");
         }
     }
 
+    @Override
+    public void handleVoucherOrder(VoucherOrder voucherOrder) {
+        //一人一单已经在seckill.lua中判断，数据库由唯一索引兜底，不需要再加锁
+        //获取代理对象（事务）
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        proxy.createVoucherOrder(voucherOrder);
+    }
+
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        //5.一人一单
-        Long userId = voucherOrder.getUserId();
-        Long voucherId = voucherOrder.getVoucherId();
-
-        //5.1 查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        //5.2 判断是否存在
-        if (count > 0) {
-            //用户已经购买过
-            log.error("用户已经购买过一次！");
+        //5.一人一单：插入订单，唯一索引冲突时忽略
+        int inserted = getBaseMapper().insertIgnore(Collections.singletonList(voucherOrder));
+        checkOnlyDuplicatesIgnored();
+        if (inserted == 0) {
+            //用户已经购买过，消息重复投递
+            log.warn("用户已经购买过一次！orderId：{}", voucherOrder.getId());
             return;
         }
 
         //6.扣减库存
         boolean success = seckillVoucherService.update()
                 .setSql("stock = stock - 1") //set stock = stock - 1
-                .eq("voucher_id", voucherId)
+                .eq("voucher_id", voucherOrder.getVoucherId())
 //                .eq("stock", voucher.getStock()) //CAS
                 .gt("stock", 0)
                 .update();
         if (!success) {
-            //扣减失败
-            log.error("库存不足！");
-            return;
+            //扣减失败，抛出异常回滚刚插入的订单，消息不被确认，重试后进入死信队列
+            throw new IllegalStateException("库存不足！voucherId：" + voucherOrder.getVoucherId());
+        }
+    }
+
+    /**
+     * INSERT IGNORE会把截断、非空、越界等所有错误都降级为警告并照常返回，
+     * 只允许唯一索引冲突(重复订单)被忽略，其他警告抛出异常回滚事务，消息不被确认
+     */
+    private void checkOnlyDuplicatesIgnored() {
+        for (Map<String, Object> warning : getBaseMapper().showWarnings()) {
+            Object code = warning.get("Code");
+            if (!(code instanceof Number) || ((Number) code).intValue() != ER_DUP_ENTRY) {
+                throw new IllegalStateException("插入订单出错：" + warning.get("Message"));
+            }
         }
-        //7.创建订单
-        save(voucherOrder);
     }
 }
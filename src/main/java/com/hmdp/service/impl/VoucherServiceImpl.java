@@ -1,5 +1,7 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,14 +9,24 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillPreheater;
+import com.hmdp.utils.SeckillShards;
+import com.hmdp.utils.SeckillSoldOutFlags;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS;
 
 /**
  * <p>
@@ -39,14 +51,77 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SeckillSoldOutFlags seckillSoldOutFlags;
+
+    @Resource
+    private SeckillPreheater seckillPreheater;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        List<Voucher> vouchers = listVoucherOfShop(shopId);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    public List<Voucher> listVoucherOfShop(Long shopId) {
+        //1.优惠券的静态信息按店铺缓存，未命中时查询数据库
+        List<Voucher> vouchers = cacheClient.queryListWithPassThrough(CACHE_VOUCHER_LIST_KEY, shopId, Voucher.class,
+                getBaseMapper()::queryVoucherOfShop, CACHE_VOUCHER_LIST_TTL, TimeUnit.MINUTES);
+        //2.秒杀券的实时库存在Redis中按分片保存，一次MGET读取所有分片，求和后覆盖
+        //  缓存中的列表和SingleFlight的结果被多个请求共享，不能直接修改，覆盖库存时使用副本
+        List<Integer> seckillIndexes = new ArrayList<>();
+        for (int i = 0; i < vouchers.size(); i++) {
+            if (vouchers.get(i).getStock() != null) {
+                seckillIndexes.add(i);
+            }
+        }
+        if (seckillIndexes.isEmpty()) {
+            return vouchers;
+        }
+        List<String> keys = new ArrayList<>(seckillIndexes.size() * SECKILL_STOCK_SHARDS);
+        for (int index : seckillIndexes) {
+            for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+                keys.add(SeckillShards.stockKey(vouchers.get(index).getId(), shard));
+            }
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks == null) {
+            return vouchers;
+        }
+        List<Voucher> result = new ArrayList<>(vouchers);
+        for (int i = 0; i < seckillIndexes.size(); i++) {
+            int total = 0;
+            boolean found = false;
+            for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+                String stock = stocks.get(i * SECKILL_STOCK_SHARDS + shard);
+                if (StrUtil.isNotBlank(stock)) {
+                    total += Math.max(Integer.parseInt(stock), 0);
+                    found = true;
+                }
+            }
+            //Redis中没有库存时保留数据库中的值
+            if (found) {
+                int index = seckillIndexes.get(i);
+                Voucher copy = BeanUtil.copyProperties(vouchers.get(index), Voucher.class);
+                copy.setStock(total);
+                result.set(index, copy);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+        evictVoucherList(voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -60,8 +135,79 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        //保存秒杀库存到redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        //保存秒杀库存到redis，平均拆分到各个分片
+        int[] stocks = SeckillShards.split(voucher.getStock());
+        for (int shard = 0; shard < stocks.length; shard++) {
+            stringRedisTemplate.opsForValue().set(SeckillShards.stockKey(voucher.getId(), shard), String.valueOf(stocks[shard]));
+        }
+        //保存秒杀时间窗口到redis和本地，库存已经写入，不会被覆盖
+        seckillPreheater.preheat(seckillVoucher);
+        //清除各节点的售罄标记
+        seckillSoldOutFlags.reset(voucher.getId());
+        //删除店铺的优惠券列表缓存
+        evictVoucherList(voucher.getShopId());
+    }
+
+    @Override
+    @Transactional
+    public boolean replenishSeckillStock(Long voucherId, int amount) {
+        //0.只能增加库存，非正数会减少数据库和Redis中的库存
+        if (amount <= 0) {
+            throw new IllegalArgumentException("库存数量必须大于0：" + amount);
+        }
+        //1.增加数据库库存 set stock = stock + amount where voucher_id = ?
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + amount)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return false;
+        }
+        //2.事务提交后再增加Redis库存并清除售罄标记，回滚时Redis中不会多出数据库中没有的库存
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            replenishRedisStock(voucherId, amount);
+            return true;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                replenishRedisStock(voucherId, amount);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 增加Redis库存，平均拆分到各个分片；还没有预热时由预热写入数据库中的库存
+     * 之后清除各节点的售罄标记
+     */
+    private void replenishRedisStock(Long voucherId, int amount) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SeckillShards.stockKey(voucherId, 0)))) {
+            int[] amounts = SeckillShards.split(amount);
+            for (int shard = 0; shard < amounts.length; shard++) {
+                if (amounts[shard] > 0) {
+                    stringRedisTemplate.opsForValue().increment(SeckillShards.stockKey(voucherId, shard), amounts[shard]);
+                }
+            }
+        }
+        seckillSoldOutFlags.reset(voucherId);
+    }
+
+    /**
+     * 删除店铺的优惠券列表缓存，在事务中调用时等事务提交后再删除，避免并发查询把旧列表写回缓存
+     */
+    private void evictVoucherList(Long shopId) {
+        String key = CACHE_VOUCHER_LIST_KEY + shopId;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cacheClient.evict(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cacheClient.evict(key);
+            }
+        });
     }
 
 
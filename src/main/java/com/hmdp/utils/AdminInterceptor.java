@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 管理接口拦截器：只有配置的管理员用户可以访问/admin/**
+ * 未登录返回401，已登录但不是管理员返回403；没有配置管理员时所有用户都被拒绝
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Set<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1.判断是否登录
+        UserDTO userDTO = UserHolder.getUser();
+        if (userDTO == null) {
+            response.setStatus(401);
+            return false;
+        }
+        //2.判断是否是管理员
+        if (!adminUserIds.contains(userDTO.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 一条缓存变更，id为变更在数据源中的位置，确认时使用
+ */
+@Data
+@AllArgsConstructor
+public class CacheChange {
+    private Long id;
+    private String key;
+}
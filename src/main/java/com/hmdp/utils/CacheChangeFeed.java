@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存变更数据源，可以是发件箱表，也可以是binlog等变更流
+ * 变更在确认之前会被重复读取，消费方处理失败时不确认即可重试
+ */
+public interface CacheChangeFeed {
+
+    /**
+     * 发布一条变更，在业务事务中调用时随事务一起提交
+     * @param key 需要失效的缓存key
+     */
+    void publish(String key);
+
+    /**
+     * 按发布顺序读取最早的一批未确认的变更
+     * @param maxSize 最多读取的条数
+     */
+    List<CacheChange> poll(int maxSize);
+
+    /**
+     * 确认变更已处理，之后不会再被读取
+     */
+    void ack(List<CacheChange> changes);
+}
@@ -1,19 +1,31 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.hmdp.dto.HotKeyDTO;
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -22,6 +34,15 @@ import static com.hmdp.utils.RedisConstants.*;
  * @Auther: why
  * @Date: 2023/07/07 14 52
  * @Version: v1.0
+ * 二级缓存：可选的本地缓存(L1) + Redis(L2)
+ * L1按key前缀开启，容量和TTL有上限，删除缓存时通过Redis发布订阅通知所有节点清除L1
+ * 缓存穿透：可按key前缀注册布隆过滤器，一定不存在的id在访问Redis和数据库之前被拦截
+ * 缓存击穿：同一节点内对同一个key的并发未命中合并为一次加载(SingleFlight)
+ * 批量查询：列表页通过MGET + 管道一次往返获取多条缓存
+ * 缓存值的编解码由CacheCodec完成，逻辑过期时间保存在头部
+ * 缓存雪崩：可按key前缀给TTL添加随机值，启动预热时分批写入并打散逻辑过期时间
+ * 统计：按前缀记录命中、空值、旧数据、加锁失败等次数以及查询和回源耗时
+ * 热点key：采样统计访问次数，超过阈值的key晋升为本地副本，后台定期从Redis刷新，冷却后降级
  */
 @Component
 @Slf4j
@@ -29,116 +50,949 @@ public class CacheClient {
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 缓存值编解码器
+     */
+    private final CacheCodec codec;
+
+    /**
+     * 比较并修改逻辑过期缓存
+     */
+    private static final DefaultRedisScript<Long> EXPIRE_SCRIPT;
+    static {
+        EXPIRE_SCRIPT = new DefaultRedisScript<>();
+        EXPIRE_SCRIPT.setLocation(new ClassPathResource("cache_expire.lua"));
+        EXPIRE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 空值标记，防止缓存穿透
+     */
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    /**
+     * 本地缓存，key为缓存前缀
+     */
+    private final Map<String, Cache<String, LocalEntry>> localCaches = new ConcurrentHashMap<>();
+
+    /**
+     * 布隆过滤器及其全量数据来源，key为缓存前缀
+     */
+    private final Map<String, RedisBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<Collection<?>>> bloomFilterLoaders = new ConcurrentHashMap<>();
+
+    /**
+     * 合并同一节点内对同一个key的并发未命中
+     */
+    private final SingleFlight singleFlight = new SingleFlight(SINGLE_FLIGHT_WAIT_MILLIS);
+
+    /**
+     * TTL随机比例，key为缓存前缀
+     */
+    private final Map<String, Double> ttlJitters = new ConcurrentHashMap<>();
+
+    /**
+     * 逻辑过期重建调度器
+     */
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    /**
+     * 热点key探测
+     */
+    private final HotKeyDetector hotKeyDetector;
+
+    /**
+     * 开启热点副本的前缀及其数据类型
+     */
+    private final Map<String, Class<?>> hotKeyTypes = new ConcurrentHashMap<>();
+
+    /**
+     * 已晋升的热点key的本地副本，key为完整的缓存key
+     */
+    private final Map<String, HotReplica> hotReplicas = new ConcurrentHashMap<>();
+
+    /**
+     * 按前缀统计命中率和耗时
+     */
+    private final CacheMetrics cacheMetrics;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheCodec codec,
+                       CacheRebuildScheduler rebuildScheduler, HotKeyDetector hotKeyDetector,
+                       CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.codec = codec;
+        this.rebuildScheduler = rebuildScheduler;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    /**
+     * 为指定前缀开启本地缓存
+     * @param keyPrefix 缓存key前缀
+     * @param capacity 最多缓存的条数，超出后按LRU淘汰
+     * @param time 本地缓存的存活时间，到期后回源Redis
+     */
+    public void enableLocalCache(String keyPrefix, int capacity, Long time, TimeUnit unit) {
+        localCaches.put(keyPrefix, CacheUtil.newLRUCache(capacity, unit.toMillis(time)));
+    }
+
+    /**
+     * 为指定前缀的TTL添加随机值，避免同一批写入的key在同一时刻过期
+     * @param ratio 随机值上限占TTL的比例，如0.2表示TTL在[ttl, 1.2ttl]之间
+     */
+    public void setTtlJitter(String keyPrefix, double ratio) {
+        ttlJitters.put(keyPrefix, ratio);
+    }
+
+    /**
+     * 为指定前缀开启热点副本，访问次数超过阈值的key自动在本地保存一份副本
+     * @param type 缓存的数据类型，后台刷新副本时用于解码
+     */
+    public void enableHotKeyReplica(String keyPrefix, Class<?> type) {
+        hotKeyTypes.put(keyPrefix, type);
+    }
+
+    /**
+     * 当前的热点key，按访问次数从高到低排列
+     */
+    public List<HotKeyDTO> hotKeys() {
+        List<HotKeyDTO> hotKeys = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : hotKeyDetector.topK().entrySet()) {
+            HotKeyDTO hotKey = new HotKeyDTO();
+            hotKey.setKey(entry.getKey());
+            hotKey.setCount(entry.getValue());
+            hotKey.setPromoted(hotReplicas.containsKey(entry.getKey()));
+            hotKeys.add(hotKey);
+        }
+        return hotKeys;
+    }
+
+    /**
+     * 按前缀的命中率、耗时等统计数据
+     */
+    public Map<String, Object> stats() {
+        return cacheMetrics.snapshot();
+    }
+
+    /**
+     * 定期维护热点副本
+     * 1.TopK中超过阈值的key晋升
+     * 2.访问次数降到阈值一半以下的key降级
+     * 3.通过一次MGET从Redis刷新所有副本
+     */
+    @Scheduled(fixedDelay = HOT_KEY_REFRESH_MILLIS)
+    public void refreshHotReplicas() {
+        if (hotKeyTypes.isEmpty()) {
+            return;
+        }
+        //1.晋升
+        for (Map.Entry<String, Long> entry : hotKeyDetector.topK().entrySet()) {
+            if (entry.getValue() < HOT_KEY_THRESHOLD) {
+                break;
+            }
+            String key = entry.getKey();
+            if (hotReplicas.containsKey(key)) {
+                continue;
+            }
+            for (Map.Entry<String, Class<?>> typeEntry : hotKeyTypes.entrySet()) {
+                if (key.startsWith(typeEntry.getKey())) {
+                    hotReplicas.put(key, new HotReplica(typeEntry.getValue()));
+                    log.info("热点key晋升为本地副本：{}，访问次数：{}", key, entry.getValue());
+                    break;
+                }
+            }
+        }
+        //2.降级
+        hotReplicas.keySet().removeIf(key -> {
+            boolean cool = hotKeyDetector.estimate(key) < HOT_KEY_THRESHOLD / 2;
+            if (cool) {
+                log.info("热点key已冷却，移除本地副本：{}", key);
+            }
+            return cool;
+        });
+        if (hotReplicas.isEmpty()) {
+            return;
+        }
+        //3.刷新
+        try {
+            List<String> keys = new ArrayList<>(hotReplicas.keySet());
+            List<byte[]> raws = multiGetRaw(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                HotReplica replica = hotReplicas.get(keys.get(i));
+                if (replica == null) {
+                    continue;
+                }
+                byte[] raw = raws == null ? null : raws.get(i);
+                Object value = isPresent(raw) ? codec.decode(raw, replica.type) : null;
+                replica.entry = value == null ? null : new LocalEntry(value, codec.readExpire(raw));
+            }
+        } catch (Exception e) {
+            log.error("刷新热点副本失败", e);
+        }
+    }
+
+    /**
+     * 限制指定前缀同时执行的逻辑过期重建任务数
+     */
+    public void setRebuildConcurrency(String keyPrefix, int maxConcurrency) {
+        rebuildScheduler.setConcurrency(keyPrefix, maxConcurrency);
+    }
+
+    /**
+     * 为指定前缀注册布隆过滤器，Redis中还没有时根据全量数据完成首次构建
+     * @param keyPrefix 缓存key前缀
+     * @param expectedInsertions 预计元素个数，元素个数超出后重建时自动扩容
+     * @param fpp 期望误判率
+     * @param idsLoader 全量id来源，误判率偏离时用于在线重建
+     */
+    public void registerBloomFilter(String keyPrefix, long expectedInsertions, double fpp,
+                                    Supplier<Collection<?>> idsLoader) {
+        RedisBloomFilter bloomFilter = new RedisBloomFilter(stringRedisTemplate, keyPrefix, expectedInsertions, fpp);
+        bloomFilters.put(keyPrefix, bloomFilter);
+        bloomFilterLoaders.put(keyPrefix, idsLoader);
+        //其他节点已经构建过的直接使用，节点启动时不需要重复加载全量id
+        if (!bloomFilter.exists()) {
+            bloomFilter.rebuild(idsLoader);
+        }
+    }
+
+    /**
+     * 新增数据后加入布隆过滤器
+     */
+    public void addToBloomFilter(String keyPrefix, Object id) {
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter != null) {
+            bloomFilter.add(id);
+        }
+    }
+
+    /**
+     * 定期检查布隆过滤器的误判率，偏离期望值时在线重建
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void checkBloomFilters() {
+        for (Map.Entry<String, RedisBloomFilter> entry : bloomFilters.entrySet()) {
+            RedisBloomFilter bloomFilter = entry.getValue();
+            try {
+                if (bloomFilter.needsRebuild()) {
+                    log.info("布隆过滤器{}误判率偏高，开始重建", entry.getKey());
+                    bloomFilter.rebuild(bloomFilterLoaders.get(entry.getKey()));
+                }
+            } catch (Exception e) {
+                log.error("布隆过滤器重建失败", e);
+            }
+        }
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setRaw(key, codec.encode(value, 0), withJitter(key, unit.toMillis(time)));
     }
 
     public void setWithLogicExpire(String key, Object value, Long time,TimeUnit unit) {
-        //设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        //设置逻辑过期，过期时间写在编码后的头部
+        long expireMillis = System.currentTimeMillis() + withJitter(key, unit.toMillis(time));
         //写入
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setRaw(key, codec.encode(value, expireMillis), null);
+    }
+
+    /**
+     * 缓存预热：分批通过管道写入逻辑过期缓存，每批之间暂停，避免启动时集中打满Redis
+     * 同一时刻写入的key逻辑过期时间在[ttl, 2ttl]之间随机分布，过期后的重建不会集中在同一时刻
+     * @param source 数据来源，可以是数据库游标，边读边写不会全部加载到内存
+     * @param idGetter 获取数据的id
+     * @param batchSize 每批写入的条数
+     * @param pauseMillis 每批之间暂停的时间
+     * @return 写入的条数
+     */
+    public <R> int warmUp(String keyPrefix, Iterable<R> source, Function<R, ?> idGetter,
+                          Long time, TimeUnit unit, int batchSize, long pauseMillis) {
+        long ttlMillis = unit.toMillis(time);
+        Map<String, byte[]> batch = new HashMap<>(batchSize * 2);
+        int count = 0;
+        for (R r : source) {
+            long expireMillis = System.currentTimeMillis() + ttlMillis
+                    + ThreadLocalRandom.current().nextLong(ttlMillis + 1);
+            batch.put(keyPrefix + idGetter.apply(r), codec.encode(r, expireMillis));
+            if (batch.size() < batchSize) {
+                continue;
+            }
+            count += batch.size();
+            writePipelined(batch, null);
+            batch.clear();
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return count;
+            }
+        }
+        count += batch.size();
+        writePipelined(batch, null);
+        return count;
+    }
+
+    /**
+     * 删除缓存，并通知所有节点清除本地缓存
+     * @param key 完整的缓存key
+     */
+    public void evict(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量失效缓存：一次MGET读取，普通缓存通过一次DEL删除，再通知所有节点清除本地缓存
+     * 逻辑过期的缓存没有TTL，删除后不会再被重建，改为只把逻辑过期时间改为已过期，
+     * 下次读取时先返回旧数据并异步重建；数据已被删除时重建会删除该key
+     * @param keys 完整的缓存key
+     */
+    public void evictBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        //1.区分普通缓存和逻辑过期缓存
+        List<String> keyList = new ArrayList<>(keys);
+        List<byte[]> raws = multiGetRaw(keyList);
+        List<String> deletes = new ArrayList<>(keyList.size());
+        List<byte[]> expireArgs = new ArrayList<>();
+        for (int i = 0; i < keyList.size(); i++) {
+            byte[] raw = raws == null ? null : raws.get(i);
+            if (isLogicExpire(raw)) {
+                expireArgs.add(rawKey(keyList.get(i)));
+                expireArgs.add(raw);
+                expireArgs.add(codec.rewriteExpire(raw, 1));
+            } else if (raw != null) {
+                deletes.add(keyList.get(i));
+            }
+        }
+        //2.普通缓存直接删除，逻辑过期缓存在值未被修改过时标记为已过期
+        if (!deletes.isEmpty()) {
+            stringRedisTemplate.delete(deletes);
+        }
+        if (!expireArgs.isEmpty()) {
+            expireLogically(expireArgs);
+        }
+        for (String key : keys) {
+            evictLocal(key);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] channel = rawKey(CACHE_INVALIDATE_CHANNEL);
+            for (String key : keys) {
+                connection.publish(channel, rawKey(key));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 是否为带有逻辑过期时间的缓存，无法解析的值按普通缓存处理
+     */
+    private boolean isLogicExpire(byte[] raw) {
+        if (!isPresent(raw)) {
+            return false;
+        }
+        try {
+            return codec.readExpire(raw) > 0;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 通过一次脚本比较并替换，值已被其他节点重建过的key保持不变
+     * @param expireArgs 每个key依次为：key、读取到的旧值、新值
+     */
+    private void expireLogically(List<byte[]> expireArgs) {
+        int numKeys = expireArgs.size() / 3;
+        byte[][] keysAndArgs = new byte[expireArgs.size()][];
+        for (int i = 0; i < numKeys; i++) {
+            keysAndArgs[i] = expireArgs.get(3 * i);
+            keysAndArgs[numKeys + 2 * i] = expireArgs.get(3 * i + 1);
+            keysAndArgs[numKeys + 2 * i + 1] = expireArgs.get(3 * i + 2);
+        }
+        byte[] script = EXPIRE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, numKeys, keysAndArgs));
+    }
+
+    /**
+     * 只清除当前节点的本地缓存，收到失效通知时调用
+     * @param key 完整的缓存key
+     */
+    public void evictLocal(String key) {
+        //热点副本置空，下次刷新前直接读Redis
+        HotReplica replica = hotReplicas.get(key);
+        if (replica != null) {
+            replica.entry = null;
+        }
+        for (Map.Entry<String, Cache<String, LocalEntry>> entry : localCaches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                entry.getValue().remove(key);
+            }
+        }
     }
 
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type,
                                           Function<ID, R> dbFallback,Long time,TimeUnit unit) {
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+        long begin = System.nanoTime();
+        try {
+            return doQueryWithPassThrough(metrics, keyPrefix, id, type, dbFallback, time, unit);
+        } finally {
+            metrics.queryLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 缓存集合，例如店铺的优惠券列表，空集合也会缓存
+     * 集合只缓存在Redis中，命中时返回新解码的对象；未命中时合并的请求共享数据库查询的结果
+     */
+    public <E, ID> List<E> queryListWithPassThrough(String keyPrefix, ID id, Class<E> elementType,
+                                                    Function<ID, List<E>> dbFallback, Long time, TimeUnit unit) {
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+        long begin = System.nanoTime();
+        try {
+            String key = keyPrefix + id;
+            //1.从Redis查询缓存
+            byte[] raw = getRaw(key);
+            if (isPresent(raw)) {
+                //2.存在，直接返回；与当前结构不兼容的旧数据按未命中处理
+                List<E> list = codec.decodeList(raw, elementType);
+                if (list != null) {
+                    metrics.redisHits.increment();
+                    return list;
+                }
+            }
+            //3.不存在，同一节点内并发的未命中合并为一次数据库查询
+            metrics.misses.increment();
+            List<E> loaded = singleFlight.execute(key, () -> {
+                List<E> list = load(metrics, id, dbFallback);
+                if (list == null) {
+                    list = Collections.emptyList();
+                }
+                this.set(key, list, time, unit);
+                return list;
+            });
+            return new ArrayList<>(loaded);
+        } finally {
+            metrics.queryLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    private <R, ID> R doQueryWithPassThrough(CacheMetrics.PrefixMetrics metrics, String keyPrefix, ID id, Class<R> type,
+                                             Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         //缓存穿透解决方案
         String key = keyPrefix + id;
+        //0.查询本地缓存
+        Cache<String, LocalEntry> localCache = localCaches.get(keyPrefix);
+        R local = lookupLocal(localCache, key);
+        if (local != null) {
+            metrics.localHits.increment();
+            return local;
+        }
+        //0.1 布隆过滤器判断，一定不存在的直接返回
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+            metrics.bloomRejects.increment();
+            return null;
+        }
         //1.从Redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
 
         //2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            //3.存在，直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        //判断命中的是否是空值
-        if(json != null) {
-            // 返回一个错误信息
+        if (isPresent(raw)) {
+            //3.存在，直接返回；与当前结构不兼容的旧数据按未命中处理
+            R r = codec.decode(raw, type);
+            if (r != null) {
+                metrics.redisHits.increment();
+                putLocal(localCache, key, r, 0);
+                return r;
+            }
+        } else if(raw != null) {
+            //命中的是空值，返回一个错误信息
+            metrics.nullHits.increment();
             return null;
         }
 
-        //4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
-        //5.不存在，返回错误
-        if(r == null) {
-            //将空值写入Redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            //返回错误信息
+        //4.不存在，同一节点内并发的未命中合并为一次数据库查询
+        metrics.misses.increment();
+        return singleFlight.execute(key, () -> {
+            //4.1 根据id查询数据库
+            R r = load(metrics, id, dbFallback);
+            //5.不存在，返回错误
+            if(r == null) {
+                //布隆过滤器放行但数据不存在，记录误判
+                if (bloomFilter != null) {
+                    bloomFilter.recordFalsePositive();
+                }
+                //将空值写入Redis
+                setNull(key);
+                //返回错误信息
+                return null;
+            }
+            //6.存在，写入redis
+            this.set(key, r, time, unit);
+            putLocal(localCache, key, r, 0);
+            //7.返回
+            return r;
+        });
+    }
+
+    /**
+     * 互斥锁实现缓存击穿避免
+     * 同一节点内只有一个线程去竞争Redis互斥锁并查询数据库，其余线程等待它的结果
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, String lockKeyPrefix,
+                                    Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+        long begin = System.nanoTime();
+        try {
+            return doQueryWithMutex(metrics, keyPrefix, id, type, lockKeyPrefix, dbFallback, time, unit);
+        } finally {
+            metrics.queryLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    private <R, ID> R doQueryWithMutex(CacheMetrics.PrefixMetrics metrics, String keyPrefix, ID id, Class<R> type,
+                                       String lockKeyPrefix, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        //0.查询本地缓存
+        Cache<String, LocalEntry> localCache = localCaches.get(keyPrefix);
+        R local = lookupLocal(localCache, key);
+        if (local != null) {
+            metrics.localHits.increment();
+            return local;
+        }
+        //1.从Redis查询缓存
+        byte[] raw = getRaw(key);
+        //2.判断是否存在
+        if (isPresent(raw)) {
+            R r = codec.decode(raw, type);
+            if (r != null) {
+                metrics.redisHits.increment();
+                putLocal(localCache, key, r, 0);
+                return r;
+            }
+        } else if (raw != null) {
+            //判断命中的是否是空值
+            metrics.nullHits.increment();
             return null;
         }
-        //6.存在，写入redis
-        this.set(key, r, time, unit);
-        //7.返回
+        //3.未命中，合并同一节点内的并发请求
+        metrics.misses.increment();
+        R r = singleFlight.execute(key, () -> loadWithMutex(metrics, key, lockKeyPrefix + id, id, type, dbFallback, time, unit));
+        putLocal(localCache, key, r, 0);
         return r;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
+    private <R, ID> R loadWithMutex(CacheMetrics.PrefixMetrics metrics, String key, String lockKey, ID id, Class<R> type,
+                                    Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        for (int i = 0; i < MUTEX_MAX_RETRIES; i++) {
+            //1.获取互斥锁
+            if (tryLock(lockKey)) {
+                try {
+                    //2.获取锁成功，再次检查缓存，其他节点可能已经完成重建
+                    byte[] raw = getRaw(key);
+                    if (raw != null) {
+                        R cached = isPresent(raw) ? codec.decode(raw, type) : null;
+                        if (cached != null || !isPresent(raw)) {
+                            return cached;
+                        }
+                    }
+                    //3.根据id查询数据库
+                    R r = load(metrics, id, dbFallback);
+                    if (r == null) {
+                        setNull(key);
+                        return null;
+                    }
+                    //4.写入redis
+                    this.set(key, r, time, unit);
+                    return r;
+                } finally {
+                    //5.释放互斥锁
+                    unLock(lockKey);
+                }
+            }
+            //6.获取锁失败，休眠后重新读取缓存，循环代替递归避免栈溢出
+            metrics.lockFailures.increment();
+            try {
+                Thread.sleep(MUTEX_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            byte[] raw = getRaw(key);
+            if (isPresent(raw)) {
+                R cached = codec.decode(raw, type);
+                if (cached != null) {
+                    return cached;
+                }
+            } else if (raw != null) {
+                return null;
+            }
+        }
+        //7.多次重试仍未拿到数据，直接查询数据库
+        return load(metrics, id, dbFallback);
+    }
 
     /**
      * 逻辑过期时间实现缓存击穿避免
+     * 未命中时，注册了布隆过滤器的前缀由过滤器判断是否需要查询数据库，未注册的直接返回null
      * @param id
      * @return
      */
     public <R, ID> R queryWithLogicExpire(String keyPrefix, ID id, Class<R> type, String lcokKeyPrefix,
                                           Function<ID, R> dbFallback, Long time,TimeUnit unit) {
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+        long begin = System.nanoTime();
+        try {
+            return doQueryWithLogicExpire(metrics, keyPrefix, id, type, lcokKeyPrefix, dbFallback, time, unit);
+        } finally {
+            metrics.queryLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    private <R, ID> R doQueryWithLogicExpire(CacheMetrics.PrefixMetrics metrics, String keyPrefix, ID id, Class<R> type,
+                                             String lcokKeyPrefix, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         //缓存穿透解决方案
         String key = keyPrefix + id;
+        //0.查询本地缓存，本地缓存中只保存未逻辑过期的数据
+        Cache<String, LocalEntry> localCache = localCaches.get(keyPrefix);
+        R local = lookupLocal(localCache, key);
+        if (local != null) {
+            metrics.localHits.increment();
+            return local;
+        }
         //1.从Redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
 
         //2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            //3.存在，直接返回
-            return null;
+        if (!isPresent(raw)) {
+            //3.不存在，直接返回
+            metrics.misses.increment();
+            RedisBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+            if (bloomFilter == null) {
+                return null;
+            }
+            //3.1 注册了布隆过滤器的前缀，一定不存在的直接返回，可能存在的同步加载一次
+            if (!bloomFilter.mightContain(id)) {
+                metrics.bloomRejects.increment();
+                return null;
+            }
+            return singleFlight.execute(key, () -> {
+                R r1 = load(metrics, id, dbFallback);
+                if (r1 == null) {
+                    //布隆过滤器放行但数据不存在，记录误判
+                    bloomFilter.recordFalsePositive();
+                    return null;
+                }
+                this.setWithLogicExpire(key, r1, time, unit);
+                return r1;
+            });
         }
 
-        //4.命中，需要判断过期时间
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        //4.命中，先从头部读取过期时间，再解码数据
+        long expireMillis = codec.readExpire(raw);
+        R r = codec.decode(raw, type);
+        if (r == null) {
+            //与当前结构不兼容的旧数据，同步重建一次
+            metrics.misses.increment();
+            return singleFlight.execute(key, () -> {
+                R r1 = load(metrics, id, dbFallback);
+                if (r1 != null) {
+                    this.setWithLogicExpire(key, r1, time, unit);
+                }
+                return r1;
+            });
+        }
+        metrics.redisHits.increment();
         //5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            //5.1 未过期，直接返回店铺信息
+        if(expireMillis > System.currentTimeMillis()) {
+            //5.1 未过期，写入本地缓存后直接返回店铺信息
+            putLocal(localCache, key, r, expireMillis);
             return r;
         }
-        //5.2已过期，需要缓存重建
+        //5.2已过期，需要缓存重建，先返回旧数据
+        metrics.staleServes.increment();
 
         //6.缓存重建
-        //6.1 获取互斥锁
+        //6.1 本节点已经在排队重建该key，直接返回旧数据
+        if (rebuildScheduler.isPending(key)) {
+            return r;
+        }
+        //6.2 提交到重建调度器，执行时再获取互斥锁，队列已满时同样返回旧数据
         String lockKey = lcokKeyPrefix + id;
-        boolean isLock = tryLock(lockKey);
-        //6.2 判断是否获取成功
-        if(isLock) {
-            // 6.3 成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //重建缓存
-                    //查询数据库
-                    R r1 = dbFallback.apply(id);
-                    //写入redis
-                    this.setWithLogicExpire(key, r1, time, unit);
-
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //释放锁
-                    unLock(lockKey);
+        rebuildScheduler.submit(keyPrefix, key, () -> {
+            //其他节点正在重建
+            if (!tryLock(lockKey)) {
+                metrics.lockFailures.increment();
+                return;
+            }
+            try {
+                //查询数据库
+                R r1 = load(metrics, id, dbFallback);
+                if (r1 == null) {
+                    //数据已被删除，删除缓存，之后按未命中处理
+                    stringRedisTemplate.delete(key);
+                    return;
                 }
-            });
-        }
+                //写入redis
+                this.setWithLogicExpire(key, r1, time, unit);
+            } finally {
+                //释放锁
+                unLock(lockKey);
+            }
+        });
 
         //6.4 返回商铺信息
         return r;
     }
 
+    /**
+     * 批量查询，普通TTL缓存
+     * 命中的数据通过一次MGET获取，未命中的id通过一次数据库查询加载，再通过一次管道写回，结果保持ids的顺序
+     * @param batchDbFallback 根据id集合批量查询数据库，返回id到数据的映射
+     * @return 存在的数据，顺序与ids一致
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> type,
+                                      Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        return doQueryBatch(keyPrefix, ids, type, batchDbFallback, time, unit, false);
+    }
+
+    /**
+     * 批量查询，逻辑过期缓存，与queryWithLogicExpire共用同一份缓存数据
+     * 已逻辑过期的数据随未命中的数据一起批量重新加载
+     */
+    public <R, ID> List<R> queryBatchWithLogicExpire(String keyPrefix, List<ID> ids, Class<R> type,
+                                                     Function<List<ID>, Map<ID, R>> batchDbFallback,
+                                                     Long time, TimeUnit unit) {
+        return doQueryBatch(keyPrefix, ids, type, batchDbFallback, time, unit, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R, ID> List<R> doQueryBatch(String keyPrefix, List<ID> ids, Class<R> type,
+                                         Function<List<ID>, Map<ID, R>> batchDbFallback,
+                                         Long time, TimeUnit unit, boolean logicExpire) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+        Object[] values = new Object[ids.size()];
+        Cache<String, LocalEntry> localCache = localCaches.get(keyPrefix);
+        //1.先查本地缓存，剩余的key通过一次MGET查询Redis
+        List<Integer> remoteIndexes = new ArrayList<>(ids.size());
+        List<String> remoteKeys = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            String key = keyPrefix + ids.get(i);
+            Object local = lookupLocal(localCache, key);
+            if (local != null) {
+                metrics.localHits.increment();
+                values[i] = local;
+            } else {
+                remoteIndexes.add(i);
+                remoteKeys.add(key);
+            }
+        }
+        List<ID> missIds = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+        if (!remoteKeys.isEmpty()) {
+            List<byte[]> raws = multiGetRaw(remoteKeys);
+            long now = System.currentTimeMillis();
+            for (int j = 0; j < remoteKeys.size(); j++) {
+                int index = remoteIndexes.get(j);
+                byte[] raw = raws == null ? null : raws.get(j);
+                //2.判断是否命中
+                if (isPresent(raw)) {
+                    values[index] = codec.decode(raw, type);
+                    if (values[index] != null) {
+                        long expireMillis = logicExpire ? codec.readExpire(raw) : 0;
+                        if (!logicExpire || expireMillis > now) {
+                            metrics.redisHits.increment();
+                            putLocal(localCache, remoteKeys.get(j), values[index], expireMillis);
+                            continue;
+                        }
+                    }
+                    //已逻辑过期，旧值作为兜底，随未命中的数据一起重新加载
+                } else if (raw != null && !logicExpire) {
+                    //命中空值
+                    metrics.nullHits.increment();
+                    continue;
+                }
+                metrics.misses.increment();
+                missIds.add(ids.get(index));
+                missIndexes.add(index);
+            }
+        }
+        //3.未命中的id一次查询数据库，并通过管道写回Redis
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = load(metrics, missIds, batchDbFallback);
+            Map<String, byte[]> writes = new HashMap<>(missIds.size());
+            List<String> deletes = new ArrayList<>();
+            for (int j = 0; j < missIds.size(); j++) {
+                String key = keyPrefix + missIds.get(j);
+                R r = loaded == null ? null : loaded.get(missIds.get(j));
+                if (r == null) {
+                    if (!logicExpire) {
+                        writes.put(key, NULL_VALUE);
+                    } else if (values[missIndexes.get(j)] != null) {
+                        //已逻辑过期的数据已被删除，删除缓存
+                        deletes.add(key);
+                        values[missIndexes.get(j)] = null;
+                    }
+                    continue;
+                }
+                values[missIndexes.get(j)] = r;
+                long expireMillis = logicExpire ? System.currentTimeMillis() + withJitter(key, unit.toMillis(time)) : 0;
+                writes.put(key, codec.encode(r, expireMillis));
+            }
+            writePipelined(writes, logicExpire ? null : unit.toMillis(time));
+            if (!deletes.isEmpty()) {
+                stringRedisTemplate.delete(deletes);
+            }
+        }
+        //4.按照ids的顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (Object value : values) {
+            if (value != null) {
+                result.add((R) value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 查询数据库，记录次数、失败次数和耗时
+     */
+    private <T, R> R load(CacheMetrics.PrefixMetrics metrics, T arg, Function<T, R> dbFallback) {
+        metrics.loads.increment();
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(arg);
+        } catch (RuntimeException e) {
+            metrics.loadFailures.increment();
+            throw e;
+        } finally {
+            metrics.loadLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 通过一次管道批量写入，空值标记按空值TTL写入
+     * @param ttlMillis 过期时间，为null表示不过期(逻辑过期)
+     */
+    private void writePipelined(Map<String, byte[]> writes, Long ttlMillis) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        long nullTtlMillis = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+                byte[] rawKey = rawKey(entry.getKey());
+                byte[] rawValue = entry.getValue();
+                if (rawValue.length == 0) {
+                    connection.stringCommands().pSetEx(rawKey, withJitter(entry.getKey(), nullTtlMillis), rawValue);
+                } else if (ttlMillis == null) {
+                    connection.stringCommands().set(rawKey, rawValue);
+                } else {
+                    connection.stringCommands().pSetEx(rawKey, withJitter(entry.getKey(), ttlMillis), rawValue);
+                }
+            }
+            return null;
+        });
+    }
+
+    private byte[] getRaw(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(rawKey(key)));
+    }
+
+    private List<byte[]> multiGetRaw(List<String> keys) {
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = rawKey(keys.get(i));
+        }
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(rawKeys));
+    }
+
+    /**
+     * @param ttlMillis 过期时间，为null表示不过期(逻辑过期)
+     */
+    private void setRaw(String key, byte[] value, Long ttlMillis) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            if (ttlMillis == null) {
+                return connection.stringCommands().set(rawKey(key), value);
+            }
+            return connection.stringCommands().pSetEx(rawKey(key), ttlMillis, value);
+        });
+    }
+
+    private void setNull(String key) {
+        setRaw(key, NULL_VALUE, withJitter(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL)));
+    }
+
+    /**
+     * 按key所属前缀的配置给TTL加上随机值
+     */
+    private long withJitter(String key, long ttlMillis) {
+        for (Map.Entry<String, Double> entry : ttlJitters.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                long bound = (long) (ttlMillis * entry.getValue());
+                return bound > 0 ? ttlMillis + ThreadLocalRandom.current().nextLong(bound + 1) : ttlMillis;
+            }
+        }
+        return ttlMillis;
+    }
+
+    private static boolean isPresent(byte[] raw) {
+        return raw != null && raw.length > 0;
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 记录一次访问，依次查询热点副本和本地缓存
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R lookupLocal(Cache<String, LocalEntry> localCache, String key) {
+        hotKeyDetector.record(key);
+        HotReplica replica = hotReplicas.get(key);
+        if (replica != null) {
+            LocalEntry entry = replica.entry;
+            if (entry != null && (entry.expireMillis == 0 || entry.expireMillis > System.currentTimeMillis())) {
+                return (R) entry.value;
+            }
+        }
+        return getLocal(localCache, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R getLocal(Cache<String, LocalEntry> localCache, String key) {
+        if (localCache == null) {
+            return null;
+        }
+        //不刷新访问时间，保证本地缓存的存活时间从写入开始计算
+        LocalEntry entry = localCache.get(key, false);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireMillis > 0 && entry.expireMillis <= System.currentTimeMillis()) {
+            //已逻辑过期，交给Redis层处理重建
+            localCache.remove(key);
+            return null;
+        }
+        return (R) entry.value;
+    }
+
+    private void putLocal(Cache<String, LocalEntry> localCache, String key, Object value, long expireMillis) {
+        if (localCache != null && value != null) {
+            localCache.put(key, new LocalEntry(value, expireMillis));
+        }
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         //拆箱底层就是调用booleanValue()方法，如果flag为null的话就会空指针异常
@@ -150,5 +1004,25 @@ public class CacheClient {
         stringRedisTemplate.delete(key);
     }
 
+    /**
+     * 本地缓存条目，expireMillis为逻辑过期时间，为0表示只受本地TTL限制
+     */
+    @AllArgsConstructor
+    private static class LocalEntry {
+        private final Object value;
+        private final long expireMillis;
+    }
+
+    /**
+     * 热点key的本地副本，entry由后台定期刷新
+     */
+    private static class HotReplica {
+        private final Class<?> type;
+        private volatile LocalEntry entry;
+
+        HotReplica(Class<?> type) {
+            this.type = type;
+        }
+    }
 
 }
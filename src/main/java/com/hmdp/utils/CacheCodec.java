@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存值的编解码器
+ * 逻辑过期时间保存在固定位置的头部，判断是否过期时不需要解码数据体
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码
+     * @param value 缓存数据，实体或实体集合
+     * @param logicExpireMillis 逻辑过期时间戳(毫秒)，0代表不使用逻辑过期
+     * @return 写入Redis的字节
+     */
+    byte[] encode(Object value, long logicExpireMillis);
+
+    /**
+     * 只读取逻辑过期时间，不解码数据体
+     * @return 逻辑过期时间戳(毫秒)，没有逻辑过期时返回0
+     */
+    long readExpire(byte[] raw);
+
+    /**
+     * 只修改逻辑过期时间，数据体保持不变
+     * @param logicExpireMillis 新的逻辑过期时间戳(毫秒)
+     * @return 修改后的字节，原数据不变
+     */
+    byte[] rewriteExpire(byte[] raw, long logicExpireMillis);
+
+    /**
+     * 解码为实体
+     * @return 实体，数据格式与当前类型不兼容时返回null
+     */
+    <R> R decode(byte[] raw, Class<R> type);
+
+    /**
+     * 解码为实体集合
+     * @return 实体集合，数据格式与当前类型不兼容时返回null
+     */
+    <E> List<E> decodeList(byte[] raw, Class<E> elementType);
+}
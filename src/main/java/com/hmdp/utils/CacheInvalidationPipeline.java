@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_OUTBOX_BATCH_SIZE;
+import static com.hmdp.utils.RedisConstants.CACHE_OUTBOX_POLL_MILLIS;
+
+/**
+ * 缓存失效流水线：从变更数据源读取变更，事务提交后删除Redis和各节点的本地缓存
+ * 1.业务事务提交后立即触发一次处理，定时任务兜底，进程重启或处理失败的变更会被重新读取
+ * 2.每批变更按key去重排序后批量失效：普通缓存通过一次DEL删除，逻辑过期缓存改为已过期，再通知所有节点清除本地缓存
+ * 3.失效成功后才确认变更，失败时不确认，下次重试
+ */
+@Slf4j
+@Component
+public class CacheInvalidationPipeline {
+
+    private final CacheChangeFeed cacheChangeFeed;
+
+    private final CacheClient cacheClient;
+
+    private final ExecutorService drainExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 已有处理任务在排队时不再重复提交
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    public CacheInvalidationPipeline(CacheChangeFeed cacheChangeFeed, CacheClient cacheClient) {
+        this.cacheChangeFeed = cacheChangeFeed;
+        this.cacheClient = cacheClient;
+    }
+
+    /**
+     * 当前事务提交后处理变更；不在事务中时立即处理
+     */
+    public void drainAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            requestDrain();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                requestDrain();
+            }
+        });
+    }
+
+    /**
+     * 定时兜底处理
+     */
+    @Scheduled(fixedDelay = CACHE_OUTBOX_POLL_MILLIS)
+    public void poll() {
+        requestDrain();
+    }
+
+    /**
+     * 处理所有未确认的变更
+     * @return 本次确认的变更数
+     */
+    public synchronized int drain() {
+        int acked = 0;
+        while (true) {
+            List<CacheChange> changes = cacheChangeFeed.poll(CACHE_OUTBOX_BATCH_SIZE);
+            if (changes.isEmpty()) {
+                return acked;
+            }
+            //同一批中的key去重并排序
+            TreeSet<String> keys = new TreeSet<>();
+            for (CacheChange change : changes) {
+                keys.add(change.getKey());
+            }
+            try {
+                cacheClient.evictBatch(keys);
+            } catch (Exception e) {
+                //不确认，下次重新读取
+                log.error("缓存失效失败，{}条变更等待重试", changes.size(), e);
+                return acked;
+            }
+            cacheChangeFeed.ack(changes);
+            acked += changes.size();
+            if (changes.size() < CACHE_OUTBOX_BATCH_SIZE) {
+                return acked;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainExecutor.shutdown();
+    }
+
+    private void requestDrain() {
+        if (!drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        drainExecutor.execute(() -> {
+            drainScheduled.set(false);
+            try {
+                drain();
+            } catch (Exception e) {
+                log.error("读取缓存变更失败", e);
+            }
+        });
+    }
+}
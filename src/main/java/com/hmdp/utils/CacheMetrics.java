@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_METRICS_LOG_MILLIS;
+
+/**
+ * CacheClient的统计数据，按key前缀分别统计
+ * 计数使用LongAdder，延迟使用分桶直方图，记录时没有锁
+ */
+@Slf4j
+@Component
+public class CacheMetrics {
+
+    private final Map<String, PrefixMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * 获取前缀对应的统计数据，不存在时创建
+     */
+    public PrefixMetrics of(String keyPrefix) {
+        PrefixMetrics prefixMetrics = metrics.get(keyPrefix);
+        if (prefixMetrics == null) {
+            prefixMetrics = metrics.computeIfAbsent(keyPrefix, k -> new PrefixMetrics());
+        }
+        return prefixMetrics;
+    }
+
+    /**
+     * 所有前缀当前的统计数据
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        for (Map.Entry<String, PrefixMetrics> entry : metrics.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 定期输出统计摘要
+     */
+    @Scheduled(fixedDelay = CACHE_METRICS_LOG_MILLIS)
+    public void logSummary() {
+        for (Map.Entry<String, PrefixMetrics> entry : metrics.entrySet()) {
+            PrefixMetrics m = entry.getValue();
+            log.info("缓存统计[{}] 请求：{}，命中率：{}，本地命中：{}，空值命中：{}，未命中：{}，旧数据：{}，加锁失败：{}，布隆拦截：{}，" +
+                            "查询耗时(us)：{}，回源耗时(us)：{}",
+                    entry.getKey(), m.requests(), String.format("%.4f", m.hitRate()), m.localHits.sum(), m.nullHits.sum(),
+                    m.misses.sum(), m.staleServes.sum(), m.lockFailures.sum(), m.bloomRejects.sum(),
+                    m.queryLatency.summary(), m.loadLatency.summary());
+        }
+    }
+
+    /**
+     * 单个前缀的统计数据
+     */
+    public static class PrefixMetrics {
+        /**
+         * 本地缓存或热点副本命中
+         */
+        public final LongAdder localHits = new LongAdder();
+        /**
+         * Redis命中
+         */
+        public final LongAdder redisHits = new LongAdder();
+        /**
+         * 命中空值
+         */
+        public final LongAdder nullHits = new LongAdder();
+        /**
+         * 未命中，需要查询数据库
+         */
+        public final LongAdder misses = new LongAdder();
+        /**
+         * 逻辑过期后返回旧数据
+         */
+        public final LongAdder staleServes = new LongAdder();
+        /**
+         * 获取互斥锁失败
+         */
+        public final LongAdder lockFailures = new LongAdder();
+        /**
+         * 被布隆过滤器拦截
+         */
+        public final LongAdder bloomRejects = new LongAdder();
+        /**
+         * 查询数据库的次数及失败次数
+         */
+        public final LongAdder loads = new LongAdder();
+        public final LongAdder loadFailures = new LongAdder();
+        /**
+         * 一次查询的总耗时
+         */
+        public final LatencyHistogram queryLatency = new LatencyHistogram();
+        /**
+         * 查询数据库(包括逻辑过期重建)的耗时
+         */
+        public final LatencyHistogram loadLatency = new LatencyHistogram();
+
+        public long requests() {
+            return localHits.sum() + redisHits.sum() + nullHits.sum() + misses.sum() + bloomRejects.sum();
+        }
+
+        /**
+         * 命中率：本地命中、Redis命中、空值命中都算命中
+         */
+        public double hitRate() {
+            long requests = requests();
+            if (requests == 0) {
+                return 0;
+            }
+            return (double) (localHits.sum() + redisHits.sum() + nullHits.sum()) / requests;
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("requests", requests());
+            snapshot.put("hitRate", hitRate());
+            snapshot.put("localHits", localHits.sum());
+            snapshot.put("redisHits", redisHits.sum());
+            snapshot.put("nullHits", nullHits.sum());
+            snapshot.put("misses", misses.sum());
+            snapshot.put("staleServes", staleServes.sum());
+            snapshot.put("lockFailures", lockFailures.sum());
+            snapshot.put("bloomRejects", bloomRejects.sum());
+            snapshot.put("loads", loads.sum());
+            snapshot.put("loadFailures", loadFailures.sum());
+            snapshot.put("queryLatencyMicros", queryLatency.summary());
+            snapshot.put("loadLatencyMicros", loadLatency.summary());
+            return snapshot;
+        }
+    }
+}
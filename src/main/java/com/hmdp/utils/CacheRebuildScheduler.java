@@ -0,0 +1,239 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 缓存重建调度器，所有逻辑过期重建共用一个有界线程池
+ * 1.同一个key同一时刻只排队一次，重复提交直接返回旧数据
+ * 2.排队的任务超过上限时拒绝，调用方返回旧数据，避免大量key同时过期时重建任务占满数据库连接
+ * 3.按key的访问热度排序，越热的key越先重建
+ * 4.可以按key前缀限制同时重建的任务数，超出的任务在该前缀下排队，前面的任务完成后接着执行
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 排队中和执行中的任务，key为缓存key
+     */
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 按前缀的并发限制，key为缓存前缀
+     */
+    private final Map<String, PrefixLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * 热点探测，key的访问次数估算值作为重建的优先级
+     */
+    private final HotKeyDetector hotKeyDetector;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+    public CacheRebuildScheduler(HotKeyDetector hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(CACHE_REBUILD_THREADS, CACHE_REBUILD_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * 限制指定前缀同时执行的重建任务数
+     */
+    public void setConcurrency(String keyPrefix, int maxConcurrency) {
+        limiters.put(keyPrefix, new PrefixLimiter(maxConcurrency));
+    }
+
+    /**
+     * 判断key是否已在排队或重建中
+     */
+    public boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    /**
+     * 提交重建任务
+     * @param keyPrefix 缓存前缀，用于并发限制
+     * @param key 完整的缓存key，用于去重
+     * @param rebuild 重建逻辑
+     * @return 是否提交成功；已在排队或队列已满时返回false，调用方直接返回旧数据
+     */
+    public boolean submit(String keyPrefix, String key, Runnable rebuild) {
+        if (pending.size() >= CACHE_REBUILD_QUEUE_CAPACITY) {
+            rejected.increment();
+            log.warn("缓存重建队列已满，返回旧数据，key：{}", key);
+            return false;
+        }
+        RebuildTask task = new RebuildTask(keyPrefix, key, rebuild, priority(key), sequence.incrementAndGet());
+        if (pending.putIfAbsent(key, task) != null) {
+            deduplicated.increment();
+            return false;
+        }
+        submitted.increment();
+        executor.execute(task);
+        return true;
+    }
+
+    /**
+     * 当前的统计数据
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long done = completed.sum() + failed.sum();
+        int deferred = 0;
+        for (PrefixLimiter limiter : limiters.values()) {
+            deferred += limiter.deferredSize();
+        }
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("deferred", deferred);
+        stats.put("active", executor.getActiveCount());
+        stats.put("pending", pending.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgLatencyMillis", done == 0 ? 0 : totalLatency.sum() / done);
+        stats.put("maxLatencyMillis", maxLatency.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private long priority(String key) {
+        return hotKeyDetector.estimate(key);
+    }
+
+    private PrefixLimiter limiter(String keyPrefix) {
+        return keyPrefix == null ? null : limiters.get(keyPrefix);
+    }
+
+    private void runTask(RebuildTask task) {
+        long begin = System.currentTimeMillis();
+        try {
+            task.rebuild.run();
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.error("缓存重建失败，key：{}", task.key, e);
+        } finally {
+            long latency = System.currentTimeMillis() - begin;
+            totalLatency.add(latency);
+            maxLatency.accumulate(latency);
+            pending.remove(task.key, task);
+        }
+    }
+
+    /**
+     * 重建任务，按热度从高到低执行，热度相同时先提交的先执行
+     */
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String keyPrefix;
+        private final String key;
+        private final Runnable rebuild;
+        private final long priority;
+        private final long seq;
+
+        RebuildTask(String keyPrefix, String key, Runnable rebuild, long priority, long seq) {
+            this.keyPrefix = keyPrefix;
+            this.key = key;
+            this.rebuild = rebuild;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            PrefixLimiter limiter = limiter(keyPrefix);
+            if (limiter == null) {
+                runTask(this);
+                return;
+            }
+            //该前缀的并发已满，放入前缀队列，由正在执行的线程接着执行
+            RebuildTask next = limiter.acquireOrDefer(this) ? this : null;
+            while (next != null) {
+                runTask(next);
+                next = limiter.releaseOrNext();
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask o) {
+            int c = Long.compare(o.priority, priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    /**
+     * 单个前缀的并发限制
+     */
+    private static class PrefixLimiter {
+        private final int maxConcurrency;
+        private int running;
+        private final PriorityQueue<RebuildTask> deferred = new PriorityQueue<>();
+
+        PrefixLimiter(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        /**
+         * @return true表示获取到执行许可；false表示已放入前缀队列
+         */
+        synchronized boolean acquireOrDefer(RebuildTask task) {
+            if (running < maxConcurrency) {
+                running++;
+                return true;
+            }
+            deferred.add(task);
+            return false;
+        }
+
+        /**
+         * 任务完成后取出前缀队列中的下一个任务，许可直接交给它；没有则释放许可
+         */
+        synchronized RebuildTask releaseOrNext() {
+            RebuildTask next = deferred.poll();
+            if (next == null) {
+                running--;
+            }
+            return next;
+        }
+
+        synchronized int deferredSize() {
+            return deferred.size();
+        }
+    }
+}
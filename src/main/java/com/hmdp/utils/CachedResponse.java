@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * 预先序列化好的响应，不可变
+ * 响应体在创建时序列化一次，之后每次请求直接写出字节
+ * ETag为响应体的摘要，内容相同的节点生成的ETag相同，内容变化时ETag一定变化；数据带有更新时间时同时返回Last-Modified
+ */
+public class CachedResponse {
+
+    private final byte[] body;
+
+    private final String etag;
+
+    /**
+     * 毫秒时间戳，-1代表没有Last-Modified
+     */
+    private final long lastModified;
+
+    private CachedResponse(byte[] body, String etag, long lastModified) {
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * 使用Spring MVC的ObjectMapper序列化，与直接返回Result时的格式一致
+     */
+    public static CachedResponse of(ObjectMapper objectMapper, Result result) {
+        byte[] body = serialize(objectMapper, result);
+        return new CachedResponse(body, "\"" + DigestUtil.md5Hex(body) + "\"", -1);
+    }
+
+    /**
+     * ETag同样为响应体的摘要，同时带有Last-Modified
+     * @param lastModified 最后修改时间(毫秒)，-1代表没有
+     */
+    public static CachedResponse of(ObjectMapper objectMapper, Result result, long lastModified) {
+        byte[] body = serialize(objectMapper, result);
+        return new CachedResponse(body, "\"" + DigestUtil.md5Hex(body) + "\"", lastModified);
+    }
+
+    private static byte[] serialize(ObjectMapper objectMapper, Result result) {
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化响应失败", e);
+        }
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * 请求头If-None-Match与ETag相同时返回304，否则返回响应体
+     */
+    public ResponseEntity<byte[]> toResponse(String ifNoneMatch) {
+        return toResponse(ifNoneMatch, -1);
+    }
+
+    /**
+     * 条件请求：有If-None-Match时只比较ETag，否则比较If-Modified-Since(精确到秒)
+     * @param ifModifiedSince 请求头If-Modified-Since(毫秒)，-1代表没有
+     */
+    public ResponseEntity<byte[]> toResponse(String ifNoneMatch, long ifModifiedSince) {
+        boolean notModified = ifNoneMatch != null && !ifNoneMatch.isEmpty()
+                ? matches(ifNoneMatch, etag)
+                : lastModified >= 0 && ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        ResponseEntity.BodyBuilder builder = notModified ? ResponseEntity.status(HttpStatus.NOT_MODIFIED) : ResponseEntity.ok();
+        builder.eTag(etag).header(HttpHeaders.CACHE_CONTROL, "no-cache");
+        if (lastModified >= 0) {
+            builder.lastModified(lastModified);
+        }
+        if (notModified) {
+            return builder.build();
+        }
+        return builder.contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * If-None-Match可能是*、单个ETag或逗号分隔的多个ETag，弱ETag按内容比较
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || etag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
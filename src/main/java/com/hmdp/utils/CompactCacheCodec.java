@@ -0,0 +1,436 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器，按类的字段结构(schema)顺序写入字段值，不保存字段名
+ * 格式：魔数(1) 版本(1) 类型(1) 逻辑过期时间(8) schema哈希(4) | 空值位图 字段值...
+ * 字段结构变化后schema哈希不一致，旧数据按未命中处理
+ * 不是本格式的数据(旧的JSON缓存)交给JsonCacheCodec处理，可以平滑切换
+ */
+public class CompactCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xC1;
+    private static final byte VERSION = 1;
+    private static final byte TAG_BEAN = 1;
+    private static final byte TAG_LIST = 2;
+    private static final int EXPIRE_OFFSET = 3;
+    private static final int HEADER_LENGTH = 15;
+
+    private static final byte KIND_STRING = 1;
+    private static final byte KIND_LONG = 2;
+    private static final byte KIND_INT = 3;
+    private static final byte KIND_DOUBLE = 4;
+    private static final byte KIND_BOOLEAN = 5;
+    private static final byte KIND_DATE_TIME = 6;
+    private static final byte KIND_OTHER = 7;
+
+    private final CacheCodec fallback = new JsonCacheCodec();
+
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] encode(Object value, long logicExpireMillis) {
+        if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            Class<?> elementType = list.isEmpty() ? null : list.iterator().next().getClass();
+            if (elementType != null && !isBean(elementType)) {
+                return fallback.encode(value, logicExpireMillis);
+            }
+            Schema schema = elementType == null ? null : schema(elementType);
+            Writer writer = new Writer(HEADER_LENGTH + 64 * (list.size() + 1));
+            writeHeader(writer, TAG_LIST, logicExpireMillis, schema == null ? 0 : schema.hash);
+            writer.writeVarLong(list.size());
+            for (Object element : list) {
+                writeBean(writer, schema, element);
+            }
+            return writer.toByteArray();
+        }
+        if (!isBean(value.getClass())) {
+            return fallback.encode(value, logicExpireMillis);
+        }
+        Schema schema = schema(value.getClass());
+        Writer writer = new Writer(HEADER_LENGTH + 128);
+        writeHeader(writer, TAG_BEAN, logicExpireMillis, schema.hash);
+        writeBean(writer, schema, value);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public long readExpire(byte[] raw) {
+        if (!isCompact(raw)) {
+            return fallback.readExpire(raw);
+        }
+        return new Reader(raw, EXPIRE_OFFSET).readLong();
+    }
+
+    @Override
+    public byte[] rewriteExpire(byte[] raw, long logicExpireMillis) {
+        if (!isCompact(raw)) {
+            return fallback.rewriteExpire(raw, logicExpireMillis);
+        }
+        //过期时间在头部固定位置，直接覆盖8个字节
+        byte[] result = raw.clone();
+        long v = Math.max(logicExpireMillis, 0);
+        for (int i = 0; i < 8; i++) {
+            result[EXPIRE_OFFSET + i] = (byte) (v >>> (56 - 8 * i));
+        }
+        return result;
+    }
+
+    @Override
+    public <R> R decode(byte[] raw, Class<R> type) {
+        if (!isCompact(raw)) {
+            return fallback.decode(raw, type);
+        }
+        Schema schema = schema(type);
+        if (raw[2] != TAG_BEAN || readSchemaHash(raw) != schema.hash) {
+            return null;
+        }
+        return type.cast(readBean(new Reader(raw, HEADER_LENGTH), schema));
+    }
+
+    @Override
+    public <E> List<E> decodeList(byte[] raw, Class<E> elementType) {
+        if (!isCompact(raw)) {
+            return fallback.decodeList(raw, elementType);
+        }
+        Schema schema = schema(elementType);
+        int hash = readSchemaHash(raw);
+        if (raw[2] != TAG_LIST || (hash != 0 && hash != schema.hash)) {
+            return null;
+        }
+        Reader reader = new Reader(raw, HEADER_LENGTH);
+        int size = (int) reader.readVarLong();
+        List<E> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(elementType.cast(readBean(reader, schema)));
+        }
+        return list;
+    }
+
+    private boolean isCompact(byte[] raw) {
+        return raw.length >= HEADER_LENGTH && raw[0] == MAGIC && raw[1] == VERSION;
+    }
+
+    private boolean isBean(Class<?> type) {
+        return !(type.isPrimitive() || type.isArray() || type.isEnum()
+                || CharSequence.class.isAssignableFrom(type)
+                || Number.class.isAssignableFrom(type)
+                || Boolean.class == type
+                || Map.class.isAssignableFrom(type)
+                || Collection.class.isAssignableFrom(type)
+                || type.getName().startsWith("java."));
+    }
+
+    private void writeHeader(Writer writer, byte tag, long logicExpireMillis, int schemaHash) {
+        writer.writeByte(MAGIC);
+        writer.writeByte(VERSION);
+        writer.writeByte(tag);
+        writer.writeLong(Math.max(logicExpireMillis, 0));
+        writer.writeInt(schemaHash);
+    }
+
+    private int readSchemaHash(byte[] raw) {
+        return new Reader(raw, EXPIRE_OFFSET + 8).readInt();
+    }
+
+    private void writeBean(Writer writer, Schema schema, Object bean) {
+        Field[] fields = schema.fields;
+        //空值位图，第i位为1代表第i个字段有值
+        int bitmapOffset = writer.reserve((fields.length + 7) / 8);
+        for (int i = 0; i < fields.length; i++) {
+            Object value;
+            try {
+                value = fields[i].get(bean);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            if (value == null) {
+                continue;
+            }
+            writer.setBit(bitmapOffset, i);
+            switch (schema.kinds[i]) {
+                case KIND_STRING:
+                    writer.writeString((String) value);
+                    break;
+                case KIND_LONG:
+                    writer.writeVarLong(zigZag((Long) value));
+                    break;
+                case KIND_INT:
+                    writer.writeVarLong(zigZag((Integer) value));
+                    break;
+                case KIND_DOUBLE:
+                    writer.writeLong(Double.doubleToRawLongBits((Double) value));
+                    break;
+                case KIND_BOOLEAN:
+                    writer.writeByte((Boolean) value ? 1 : 0);
+                    break;
+                case KIND_DATE_TIME:
+                    LocalDateTime time = (LocalDateTime) value;
+                    writer.writeVarLong(zigZag(time.toEpochSecond(ZoneOffset.UTC)));
+                    writer.writeVarLong(time.getNano());
+                    break;
+                default:
+                    writer.writeString(JSONUtil.toJsonStr(value));
+            }
+        }
+    }
+
+    private Object readBean(Reader reader, Schema schema) {
+        Field[] fields = schema.fields;
+        int bitmapOffset = reader.skip((fields.length + 7) / 8);
+        Object bean;
+        try {
+            bean = schema.constructor.newInstance();
+            for (int i = 0; i < fields.length; i++) {
+                if (!reader.isBitSet(bitmapOffset, i)) {
+                    continue;
+                }
+                Object value;
+                switch (schema.kinds[i]) {
+                    case KIND_STRING:
+                        value = reader.readString();
+                        break;
+                    case KIND_LONG:
+                        value = unZigZag(reader.readVarLong());
+                        break;
+                    case KIND_INT:
+                        value = (int) unZigZag(reader.readVarLong());
+                        break;
+                    case KIND_DOUBLE:
+                        value = Double.longBitsToDouble(reader.readLong());
+                        break;
+                    case KIND_BOOLEAN:
+                        value = reader.readByte() != 0;
+                        break;
+                    case KIND_DATE_TIME:
+                        long seconds = unZigZag(reader.readVarLong());
+                        int nanos = (int) reader.readVarLong();
+                        value = LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+                        break;
+                    default:
+                        value = JSONUtil.toBean(reader.readString(), fields[i].getType());
+                }
+                fields[i].set(bean, value);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return bean;
+    }
+
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 类的字段结构：非static、非transient字段，按字段名排序
+     */
+    private static final class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final byte[] kinds;
+        private final int hash;
+
+        private Schema(Class<?> type) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + "缺少无参构造函数", e);
+            }
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            fields = list.toArray(new Field[0]);
+            kinds = new byte[fields.length];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.length; i++) {
+                kinds[i] = kindOf(fields[i].getType());
+                signature.append(',').append(fields[i].getName()).append(':').append(kinds[i]);
+            }
+            //0保留给空集合
+            int h = signature.toString().hashCode();
+            hash = h == 0 ? 1 : h;
+        }
+
+        private static byte kindOf(Class<?> type) {
+            if (type == String.class) {
+                return KIND_STRING;
+            }
+            if (type == Long.class || type == long.class) {
+                return KIND_LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return KIND_INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return KIND_DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return KIND_BOOLEAN;
+            }
+            if (type == LocalDateTime.class) {
+                return KIND_DATE_TIME;
+            }
+            return KIND_OTHER;
+        }
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        private Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        private int reserve(int n) {
+            ensure(n);
+            int offset = pos;
+            pos += n;
+            return offset;
+        }
+
+        private void setBit(int offset, int index) {
+            buf[offset + (index >>> 3)] |= (byte) (1 << (index & 7));
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        private Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private int skip(int n) {
+            int offset = pos;
+            pos += n;
+            return offset;
+        }
+
+        private boolean isBitSet(int offset, int index) {
+            return (buf[offset + (index >>> 3)] & (1 << (index & 7))) != 0;
+        }
+
+        private byte readByte() {
+            return buf[pos++];
+        }
+
+        private int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内的地理位置网格索引
+ * 按经纬度把平面划分为固定大小的网格，每个点落在一个网格中
+ * 范围查询只遍历与查询范围相交的网格，最近邻查询从中心网格一圈一圈向外扩展
+ * 距离计算与Redis GEO一致(半正矢公式，地球半径6372797.560856米)
+ */
+public class GeoGridIndex {
+
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+
+    /**
+     * 按(距离, id)从近到远排序，距离相同时id小的在前，保证游标分页的顺序稳定
+     */
+    private static final Comparator<Hit> NEAREST_FIRST =
+            Comparator.comparingDouble(Hit::getDistance).thenComparingLong(Hit::getId);
+    private static final Comparator<Hit> FARTHEST_FIRST = NEAREST_FIRST.reversed();
+
+    /**
+     * 堆的初始容量上限，limit可能是Integer.MAX_VALUE(查询半径内的全部点)，按需扩容
+     */
+    private static final int MAX_INITIAL_CAPACITY = 64;
+
+    /**
+     * 网格边长，单位度
+     */
+    private final double cellDegrees;
+
+    private final Map<Long, Map<Long, Point>> cells = new HashMap<>();
+    private final Map<Long, Point> points = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public GeoGridIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * 新增或移动一个点
+     * @param x 经度
+     * @param y 纬度
+     */
+    public void put(long id, double x, double y) {
+        Point point = new Point(id, x, y);
+        lock.writeLock().lock();
+        try {
+            Point old = points.put(id, point);
+            if (old != null) {
+                removeFromCell(old);
+            }
+            cells.computeIfAbsent(cellKey(row(y), col(x)), k -> new HashMap<>()).put(id, point);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Point old = points.remove(id);
+            if (old != null) {
+                removeFromCell(old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return points.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 范围查询，按距离从近到远返回
+     * @param radius 半径，单位米
+     * @param limit 最多返回的条数
+     */
+    public List<Hit> radius(double x, double y, double radius, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        //只保留最近的limit个，堆顶是其中最远的
+        PriorityQueue<Hit> heap = new PriorityQueue<>(initialCapacity(limit), FARTHEST_FIRST);
+        int rowSpan = (int) Math.ceil(radius / METERS_PER_DEGREE / cellDegrees);
+        int colSpan = (int) Math.ceil(radius / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(y)), 0.01)) / cellDegrees);
+        int centerRow = row(y);
+        int centerCol = col(x);
+        lock.readLock().lock();
+        try {
+            for (int r = centerRow - rowSpan; r <= centerRow + rowSpan; r++) {
+                for (int c = centerCol - colSpan; c <= centerCol + colSpan; c++) {
+                    collectAfter(cells.get(cellKey(r, c)), x, y, radius, -1, -1, limit, heap);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return sorted(heap);
+    }
+
+    /**
+     * 最近邻查询，按距离从近到远返回
+     * @param k 返回的个数
+     * @param maxDistance 最远距离，单位米
+     */
+    public List<Hit> nearest(double x, double y, int k, double maxDistance) {
+        return nearestAfter(x, y, -1, -1, k, maxDistance);
+    }
+
+    /**
+     * 游标分页的最近邻查询：返回排在(lastDistance, lastId)之后的k个点，按(距离, id)从小到大排列
+     * 完全落在lastDistance以内的网格圈直接跳过，每页只计算新一页附近的网格
+     * @param lastDistance 上一页最后一个点的距离，第一页传-1
+     * @param lastId 上一页最后一个点的id，第一页传-1
+     */
+    public List<Hit> nearestAfter(double x, double y, double lastDistance, long lastId, int k, double maxDistance) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<Hit> heap = new PriorityQueue<>(initialCapacity(k), FARTHEST_FIRST);
+        //一圈网格的最小宽度，用于判断更外圈是否还可能有更近的点
+        double ringMeters = cellDegrees * METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(Math.abs(y) + cellDegrees)), 0.01);
+        //网格对角线的最大长度，第r圈中的点距离不超过(r + 1)倍对角线
+        double diagonalMeters = cellDegrees * METERS_PER_DEGREE * Math.sqrt(2);
+        int startRing = lastDistance < 0 ? 0 : Math.max(0, (int) (lastDistance / diagonalMeters) - 1);
+        int maxRing = (int) Math.ceil(maxDistance / ringMeters) + 1;
+        int centerRow = row(y);
+        int centerCol = col(x);
+        lock.readLock().lock();
+        try {
+            for (int ring = startRing; ring <= maxRing; ring++) {
+                //已找到k个且下一圈的最近距离也比第k个远，结束
+                if (heap.size() == k && (ring - 1) * ringMeters > heap.peek().distance) {
+                    break;
+                }
+                for (int r = centerRow - ring; r <= centerRow + ring; r++) {
+                    boolean edgeRow = r == centerRow - ring || r == centerRow + ring;
+                    int step = edgeRow ? 1 : Math.max(2 * ring, 1);
+                    for (int c = centerCol - ring; c <= centerCol + ring; c += step) {
+                        collectAfter(cells.get(cellKey(r, c)), x, y, maxDistance, lastDistance, lastId, k, heap);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return sorted(heap);
+    }
+
+    /**
+     * 两点之间的距离，单位米
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    /**
+     * 把网格中在半径内、且排在(lastDistance, lastId)之后的点放入堆中，堆中只保留最近的limit个
+     */
+    private void collectAfter(Map<Long, Point> cell, double x, double y, double radius,
+                              double lastDistance, long lastId, int limit, PriorityQueue<Hit> heap) {
+        if (cell == null) {
+            return;
+        }
+        for (Point point : cell.values()) {
+            double distance = distance(x, y, point.x, point.y);
+            if (distance > radius || distance < lastDistance || (distance == lastDistance && point.id <= lastId)) {
+                continue;
+            }
+            Hit hit = new Hit(point.id, distance);
+            if (heap.size() < limit) {
+                heap.add(hit);
+            } else if (NEAREST_FIRST.compare(hit, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(hit);
+            }
+        }
+    }
+
+    private static int initialCapacity(int limit) {
+        return Math.min(limit, MAX_INITIAL_CAPACITY) + 1;
+    }
+
+    private static List<Hit> sorted(PriorityQueue<Hit> heap) {
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(NEAREST_FIRST);
+        return hits;
+    }
+
+    private void removeFromCell(Point point) {
+        long key = cellKey(row(point.y), col(point.x));
+        Map<Long, Point> cell = cells.get(key);
+        if (cell != null) {
+            cell.remove(point.id);
+            if (cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y + 90) / cellDegrees);
+    }
+
+    private int col(double x) {
+        return (int) Math.floor((x + 180) / cellDegrees);
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    private static class Point {
+        private final long id;
+        private final double x;
+        private final double y;
+
+        Point(long id, double x, double y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * 查询结果：id和距离(米)
+     */
+    public static class Hit {
+        private final long id;
+        private final double distance;
+
+        public Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 热点key探测
+ * 按采样率记录访问到Count-Min Sketch中，估算值为各行计数的最小值(只会高估不会低估)
+ * 记录访问时只更新计数，估算值超过TopK最小计数的key加入候选集合，不加锁
+ * 查询TopK和定期衰减时重新估算候选key并选出最大的K个，其余候选被清除；所有计数定期减半，冷却的key会逐渐掉出TopK
+ */
+@Component
+public class HotKeyDetector {
+
+    /**
+     * 候选key的上限，两次重新计算之间最多加入的候选数
+     */
+    private static final int MAX_CANDIDATES = HOT_KEY_TOP_K * 4;
+
+    private final int depth = HOT_KEY_SKETCH_DEPTH;
+    private final int width = HOT_KEY_SKETCH_WIDTH;
+    private final AtomicLongArray[] rows = new AtomicLongArray[depth];
+
+    /**
+     * 候选key，包含上次计算出的TopK和之后新加入的key
+     */
+    private final Map<String, Boolean> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * 上次计算出的TopK，按访问次数从高到低排列，不可修改
+     */
+    private volatile Map<String, Long> topK = Collections.emptyMap();
+
+    /**
+     * TopK中的最小计数，TopK已满时估算值不超过它的key不会成为候选
+     */
+    private volatile long topKMin;
+
+    public HotKeyDetector() {
+        for (int i = 0; i < depth; i++) {
+            rows[i] = new AtomicLongArray(width);
+        }
+    }
+
+    /**
+     * 记录一次访问，按采样率采样，采中时计数加上采样率
+     */
+    public void record(String key) {
+        if (HOT_KEY_SAMPLE_RATE > 1 && ThreadLocalRandom.current().nextInt(HOT_KEY_SAMPLE_RATE) != 0) {
+            return;
+        }
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, rows[i].addAndGet(index(hash, i), HOT_KEY_SAMPLE_RATE));
+        }
+        //已经是候选的热点key只读一次，不写共享数据
+        if (estimate > topKMin && !candidates.containsKey(key) && candidates.size() < MAX_CANDIDATES) {
+            candidates.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 估算key当前的访问次数
+     */
+    public long estimate(String key) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, rows[i].get(index(hash, i)));
+        }
+        return estimate;
+    }
+
+    /**
+     * 重新计算当前的TopK，按访问次数从高到低排列
+     */
+    public Map<String, Long> topK() {
+        recompute();
+        return topK;
+    }
+
+    /**
+     * 定期衰减：所有计数减半，最近的访问权重更高
+     */
+    @Scheduled(fixedDelay = HOT_KEY_DECAY_MILLIS)
+    public void decay() {
+        for (AtomicLongArray row : rows) {
+            for (int j = 0; j < width; j++) {
+                long value;
+                do {
+                    value = row.get(j);
+                } while (value != 0 && !row.compareAndSet(j, value, value >> 1));
+            }
+        }
+        recompute();
+    }
+
+    /**
+     * 重新估算所有候选key，保留最大的K个，其余的从候选中清除
+     */
+    private synchronized void recompute() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(candidates.size());
+        for (String key : candidates.keySet()) {
+            long count = estimate(key);
+            if (count > 0) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(key, count));
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> result = new LinkedHashMap<>(HOT_KEY_TOP_K * 2);
+        for (Map.Entry<String, Long> entry : entries) {
+            if (result.size() >= HOT_KEY_TOP_K) {
+                break;
+            }
+            result.put(entry.getKey(), entry.getValue());
+        }
+        candidates.keySet().retainAll(result.keySet());
+        topK = Collections.unmodifiableMap(result);
+        topKMin = result.size() < HOT_KEY_TOP_K ? 0 : entries.get(HOT_KEY_TOP_K - 1).getValue();
+    }
+
+    private int index(long hash, int row) {
+        //双重哈希生成每一行的下标
+        long combined = hash + row * (hash >>> 32 | 1);
+        return (int) ((combined & Long.MAX_VALUE) % width);
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * 基于hutool JSON的编解码器，兼容原有的缓存格式
+ * 普通缓存直接保存JSON，逻辑过期缓存保存RedisData的JSON
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value, long logicExpireMillis) {
+        if (logicExpireMillis <= 0) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(logicExpireMillis), ZoneId.systemDefault()));
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long readExpire(byte[] raw) {
+        Object json = JSONUtil.parse(new String(raw, StandardCharsets.UTF_8));
+        if (!isRedisData(json)) {
+            return 0;
+        }
+        LocalDateTime expireTime = ((JSONObject) json).toBean(RedisData.class).getExpireTime();
+        return expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public byte[] rewriteExpire(byte[] raw, long logicExpireMillis) {
+        Object json = JSONUtil.parse(new String(raw, StandardCharsets.UTF_8));
+        if (!isRedisData(json)) {
+            return raw;
+        }
+        RedisData redisData = ((JSONObject) json).toBean(RedisData.class);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(logicExpireMillis), ZoneId.systemDefault()));
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] raw, Class<R> type) {
+        Object json = JSONUtil.parse(new String(raw, StandardCharsets.UTF_8));
+        if (isRedisData(json)) {
+            json = ((JSONObject) json).get("data");
+        }
+        return json instanceof JSONObject ? ((JSONObject) json).toBean(type) : null;
+    }
+
+    @Override
+    public <E> List<E> decodeList(byte[] raw, Class<E> elementType) {
+        Object json = JSONUtil.parse(new String(raw, StandardCharsets.UTF_8));
+        if (isRedisData(json)) {
+            json = ((JSONObject) json).get("data");
+        }
+        return json instanceof JSONArray ? JSONUtil.toList((JSONArray) json, elementType) : null;
+    }
+
+    private boolean isRedisData(Object json) {
+        return json instanceof JSONObject
+                && ((JSONObject) json).containsKey("expireTime")
+                && ((JSONObject) json).containsKey("data");
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的变更数据源，用于测试或没有数据库的场景
+ */
+public class LocalCacheChangeFeed implements CacheChangeFeed {
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ConcurrentSkipListMap<Long, CacheChange> changes = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void publish(String key) {
+        long id = sequence.incrementAndGet();
+        changes.put(id, new CacheChange(id, key));
+    }
+
+    @Override
+    public List<CacheChange> poll(int maxSize) {
+        List<CacheChange> batch = new ArrayList<>(Math.min(maxSize, changes.size()));
+        Iterator<CacheChange> iterator = changes.values().iterator();
+        while (iterator.hasNext() && batch.size() < maxSize) {
+            batch.add(iterator.next());
+        }
+        return batch;
+    }
+
+    @Override
+    public void ack(List<CacheChange> acked) {
+        for (CacheChange change : acked) {
+            changes.remove(change.getId());
+        }
+    }
+
+    /**
+     * 未确认的变更数
+     */
+    public int size() {
+        return changes.size();
+    }
+}
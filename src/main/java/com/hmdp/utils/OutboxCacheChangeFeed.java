@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于发件箱表tb_cache_outbox的变更数据源
+ * tb_shop上的触发器在同一事务中写入变更，任何写入方修改店铺都不会漏掉缓存失效
+ */
+public class OutboxCacheChangeFeed implements CacheChangeFeed {
+
+    private final CacheOutboxMapper cacheOutboxMapper;
+
+    public OutboxCacheChangeFeed(CacheOutboxMapper cacheOutboxMapper) {
+        this.cacheOutboxMapper = cacheOutboxMapper;
+    }
+
+    @Override
+    public void publish(String key) {
+        cacheOutboxMapper.insert(new CacheOutbox().setCacheKey(key));
+    }
+
+    @Override
+    public List<CacheChange> poll(int maxSize) {
+        List<CacheOutbox> rows = cacheOutboxMapper.selectList(new QueryWrapper<CacheOutbox>()
+                .orderByAsc("id")
+                .last("limit " + maxSize));
+        List<CacheChange> changes = new ArrayList<>(rows.size());
+        for (CacheOutbox row : rows) {
+            changes.add(new CacheChange(row.getId(), row.getCacheKey()));
+        }
+        return changes;
+    }
+
+    @Override
+    public void ack(List<CacheChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(changes.size());
+        for (CacheChange change : changes) {
+            ids.add(change.getId());
+        }
+        cacheOutboxMapper.deleteBatchIds(ids);
+    }
+}
@@ -0,0 +1,297 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOOM_KEY;
+
+/**
+ * 基于Redis Bitmap的布隆过滤器，每个缓存前缀一个
+ * 位数组大小 m = -n * ln(p) / (ln2)^2，哈希函数个数 k = m / n * ln2
+ * 使用双重哈希 h1 + i * h2 生成k个位偏移量，m和k保存在Redis中，重建时按当前元素个数扩容，所有节点读取同一份大小
+ * 重建期间临时过滤器的大小同时作为共享的重建标记，任意节点新增的元素都会同时写入临时过滤器
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    private static final DefaultRedisScript<Long> CHECK_SCRIPT;
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> SWAP_SCRIPT;
+    static {
+        CHECK_SCRIPT = new DefaultRedisScript<>();
+        CHECK_SCRIPT.setLocation(new ClassPathResource("bloom_check.lua"));
+        CHECK_SCRIPT.setResultType(Long.class);
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("bloom_add.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+        SWAP_SCRIPT = new DefaultRedisScript<>();
+        SWAP_SCRIPT.setLocation(new ClassPathResource("bloom_swap.lua"));
+        SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 批量构建时每次管道提交的元素个数
+     */
+    private static final int BUILD_BATCH_SIZE = 5000;
+
+    /**
+     * 实际误判率超过期望值的倍数后触发重建
+     */
+    private static final double REBUILD_FACTOR = 2.0;
+
+    /**
+     * 重建时按当前元素个数的倍数分配容量，留出增长空间，避免频繁扩容
+     */
+    private static final long GROWTH_FACTOR = 2;
+
+    /**
+     * 统计实际误判率的最小样本数
+     */
+    private static final long MIN_SAMPLES = 1000;
+
+    /**
+     * 重建锁和重建标记的有效期，节点宕机后自动失效
+     */
+    private static final long BUILD_TIMEOUT_MINUTES = 10;
+
+    /**
+     * 哈希值只保留低40位传给Lua，h1 + i * h2 不超过double能精确表示的范围
+     */
+    private static final long HASH_MASK = (1L << 40) - 1;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String key;
+    private final String countKey;
+    private final String metaKey;
+    private final String buildingKey;
+    private final String buildingCountKey;
+    private final String buildingMetaKey;
+    private final String lockKey;
+    private final long expectedInsertions;
+    private final double fpp;
+
+    /**
+     * 被过滤器拦截的次数(一定不存在)
+     */
+    private final LongAdder rejected = new LongAdder();
+    /**
+     * 过滤器放行但数据库中不存在的次数(误判)
+     */
+    private final LongAdder falsePositives = new LongAdder();
+
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String keyPrefix,
+                            long expectedInsertions, double fpp) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = BLOOM_FILTER_KEY + keyPrefix;
+        this.countKey = this.key + ":count";
+        this.metaKey = this.key + ":meta";
+        this.buildingKey = this.key + ":building";
+        this.buildingCountKey = this.buildingKey + ":count";
+        this.buildingMetaKey = this.buildingKey + ":meta";
+        this.lockKey = LOCK_BLOOM_KEY + keyPrefix;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+    }
+
+    /**
+     * 判断元素是否可能存在
+     * @return false代表一定不存在；true代表可能存在
+     */
+    public boolean mightContain(Object id) {
+        Long result = stringRedisTemplate.execute(CHECK_SCRIPT, Arrays.asList(key, metaKey), (Object[]) hashes(id));
+        boolean contains = result == null || result != 0;
+        if (!contains) {
+            rejected.increment();
+        }
+        return contains;
+    }
+
+    /**
+     * 新增元素，其他节点正在重建时同时写入临时过滤器
+     */
+    public void add(Object id) {
+        stringRedisTemplate.execute(ADD_SCRIPT,
+                Arrays.asList(key, countKey, metaKey, buildingKey, buildingCountKey, buildingMetaKey),
+                (Object[]) hashes(id));
+    }
+
+    /**
+     * 记录一次误判：过滤器放行，但数据库中不存在
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    /**
+     * 过滤器是否已经构建，其他节点构建过的不需要重复加载全量数据
+     */
+    public boolean exists() {
+        return BooleanUtil.isTrue(stringRedisTemplate.hasKey(metaKey));
+    }
+
+    /**
+     * 全量重建：先写入临时key，完成后原子替换，重建期间过滤器持续可用
+     * 多节点同时重建时，只有获取到锁的节点执行
+     * @param idsLoader 全量元素来源，在写入重建标记之后才加载，加载期间新增的元素由add()写入临时过滤器
+     * @return 是否执行了重建
+     */
+    public boolean rebuild(Supplier<? extends Collection<?>> idsLoader) {
+        Boolean isLock = stringRedisTemplate.opsForValue()
+                .setIfAbsent(lockKey, "1", BUILD_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        if (!BooleanUtil.isTrue(isLock)) {
+            return false;
+        }
+        try {
+            //1.按当前元素个数计算新的大小，元素个数超出容量时扩容
+            long capacity = Math.max(expectedInsertions, count() * GROWTH_FACTOR);
+            long numBits = optimalNumOfBits(capacity, fpp);
+            int numHashFunctions = optimalNumOfHashFunctions(capacity, numBits);
+            stringRedisTemplate.delete(Arrays.asList(buildingKey, buildingCountKey, buildingMetaKey));
+            //2.先创建空位图，保证元素为空时也能完成替换
+            stringRedisTemplate.opsForValue().setBit(buildingKey, 0, false);
+            //3.写入临时过滤器的大小，作为所有节点可见的重建标记
+            Map<String, String> meta = new HashMap<>(2);
+            meta.put("bits", String.valueOf(numBits));
+            meta.put("hashes", String.valueOf(numHashFunctions));
+            stringRedisTemplate.opsForHash().putAll(buildingMetaKey, meta);
+            stringRedisTemplate.expire(buildingMetaKey, BUILD_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            //4.标记之后再加载全量数据，标记之前新增的元素一定包含在数据中
+            Collection<?> ids = idsLoader.get();
+            byte[] rawKey = buildingKey.getBytes(StandardCharsets.UTF_8);
+            Iterator<?> iterator = ids.iterator();
+            while (iterator.hasNext()) {
+                //分批通过管道写入
+                List<Object> batch = new ArrayList<>(BUILD_BATCH_SIZE);
+                while (iterator.hasNext() && batch.size() < BUILD_BATCH_SIZE) {
+                    batch.add(iterator.next());
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    setBits(connection, rawKey, batch, numBits, numHashFunctions);
+                    return null;
+                });
+            }
+            stringRedisTemplate.opsForValue().increment(buildingCountKey, ids.size());
+            //5.位数组、数量和大小一起原子替换
+            stringRedisTemplate.execute(SWAP_SCRIPT,
+                    Arrays.asList(buildingKey, buildingCountKey, buildingMetaKey, key, countKey, metaKey));
+            rejected.reset();
+            falsePositives.reset();
+            log.info("布隆过滤器{}重建完成，元素个数：{}，位数组大小：{}，哈希函数个数：{}",
+                    key, ids.size(), numBits, numHashFunctions);
+            return true;
+        } finally {
+            stringRedisTemplate.delete(lockKey);
+        }
+    }
+
+    /**
+     * 判断误判率是否已偏离期望值，需要重建
+     * 估算值偏高说明元素个数超出了容量，重建时会扩容；实际值偏高说明已删除的元素较多，重建时会清除
+     * 实际误判率按检查周期统计，每次检查后重新计数，其他节点重建后不会一直沿用旧的统计
+     */
+    public boolean needsRebuild() {
+        if (expectedFpp() > fpp * REBUILD_FACTOR) {
+            return true;
+        }
+        double observed = observedFpp();
+        if (falsePositives.sum() + rejected.sum() >= MIN_SAMPLES) {
+            rejected.reset();
+            falsePositives.reset();
+        }
+        return observed > fpp * REBUILD_FACTOR;
+    }
+
+    /**
+     * 根据已插入的元素个数和当前大小估算误判率 (1 - e^(-kn/m))^k
+     */
+    public double expectedFpp() {
+        List<Object> meta = stringRedisTemplate.opsForHash().multiGet(metaKey, Arrays.asList("bits", "hashes"));
+        if (meta.get(0) == null || meta.get(1) == null) {
+            return 0;
+        }
+        long numBits = Long.parseLong(meta.get(0).toString());
+        int numHashFunctions = Integer.parseInt(meta.get(1).toString());
+        return Math.pow(1 - Math.exp(-(double) numHashFunctions * count() / numBits), numHashFunctions);
+    }
+
+    /**
+     * 实际统计的误判率：误判次数 / 所有不存在元素的查询次数
+     */
+    public double observedFpp() {
+        long fp = falsePositives.sum();
+        long negatives = fp + rejected.sum();
+        if (negatives < MIN_SAMPLES) {
+            return 0;
+        }
+        return (double) fp / negatives;
+    }
+
+    private long count() {
+        String count = stringRedisTemplate.opsForValue().get(countKey);
+        return count == null ? 0 : Long.parseLong(count);
+    }
+
+    private void setBits(RedisConnection connection, byte[] rawKey, List<Object> batch,
+                         long numBits, int numHashFunctions) {
+        for (Object id : batch) {
+            String[] hashes = hashes(id);
+            long hash1 = Long.parseLong(hashes[0]);
+            long hash2 = Long.parseLong(hashes[1]);
+            //与Lua中的 (h1 + i * h2) mod m 一致
+            for (int i = 1; i <= numHashFunctions; i++) {
+                connection.stringCommands().setBit(rawKey, (hash1 + i * hash2) % numBits, true);
+            }
+        }
+    }
+
+    /**
+     * 双重哈希的两个哈希值，偏移量由Lua按过滤器当前的大小计算
+     */
+    private static String[] hashes(Object id) {
+        byte[] bytes = id.toString().getBytes(StandardCharsets.UTF_8);
+        long hash1 = fnv1a64(bytes);
+        long hash2 = mix64(hash1);
+        return new String[]{String.valueOf(hash1 & HASH_MASK), String.valueOf(hash2 & HASH_MASK)};
+    }
+
+    private static long fnv1a64(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return mix64(hash);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static long optimalNumOfBits(long n, double p) {
+        return (long) (-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    }
+
+    private static int optimalNumOfHashFunctions(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+}
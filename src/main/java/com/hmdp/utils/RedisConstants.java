@@ -10,18 +10,110 @@ public class RedisConstants {
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
+    public static final Long CACHE_SHOP_LOGIC_TTL = 20L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final int CACHE_SHOP_LOCAL_SIZE = 1000;
+    public static final Long CACHE_SHOP_LOCAL_TTL = 5L;
+    public static final double CACHE_SHOP_TTL_JITTER = 0.2;
+    public static final int CACHE_SHOP_WARMUP_SIZE = 10000;
+    public static final int CACHE_WARMUP_BATCH_SIZE = 200;
+    public static final long CACHE_WARMUP_PAUSE_MILLIS = 50L;
 
-    public static final String CACHE_SHOPTYPE_KET = "cache:shoptype";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final int CACHE_OUTBOX_BATCH_SIZE = 500;
+    public static final long CACHE_OUTBOX_POLL_MILLIS = 1000L;
+
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String LOCK_BLOOM_KEY = "lock:bloom:";
+    public static final long BLOOM_SHOP_EXPECTED = 1000000L;
+    public static final double BLOOM_SHOP_FPP = 0.01;
+
+    public static final String CACHE_SHOPTYPE_VERSION_KEY = "cache:shoptype:version";
+    public static final String SHOP_TYPE_CHANGE_CHANNEL = "shop-type:change";
+    public static final long SHOP_TYPE_VERSION_CHECK_MILLIS = 60000L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
-    public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final long SINGLE_FLIGHT_WAIT_MILLIS = 3000L;
+    public static final int MUTEX_MAX_RETRIES = 20;
+    public static final long MUTEX_RETRY_INTERVAL = 50L;
+
+    public static final int CACHE_REBUILD_THREADS = 4;
+    public static final int CACHE_REBUILD_QUEUE_CAPACITY = 1000;
+
+    public static final int HOT_KEY_SKETCH_DEPTH = 4;
+    public static final int HOT_KEY_SKETCH_WIDTH = 1 << 14;
+    public static final int HOT_KEY_SAMPLE_RATE = 4;
+    public static final int HOT_KEY_TOP_K = 100;
+    public static final long HOT_KEY_THRESHOLD = 2000L;
+    public static final long HOT_KEY_DECAY_MILLIS = 10000L;
+    public static final long HOT_KEY_REFRESH_MILLIS = 1000L;
+    public static final long CACHE_METRICS_LOG_MILLIS = 60000L;
+    public static final int CACHE_SHOP_REBUILD_CONCURRENCY = 2;
+
+    /**
+     * 秒杀库存的分片数，key的格式见SeckillShards
+     */
+    public static final int SECKILL_STOCK_SHARDS = 4;
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final long SECKILL_PREHEAT_MILLIS = 60000L;
+    /**
+     * 提前预热的时间：开始时间在此范围内的秒杀券会被预热
+     */
+    public static final long SECKILL_PREHEAT_AHEAD_MILLIS = 1800000L;
+    /**
+     * 秒杀结束后秒杀信息保留的时间
+     */
+    public static final long SECKILL_META_RETENTION_MILLIS = 86400000L;
+    /**
+     * 本地售罄标记的有效期，过期后再执行一次脚本确认
+     */
+    public static final long SECKILL_SOLD_OUT_TTL_MILLIS = 5000L;
+    /**
+     * 从其他分片扣减的库存超过此时间仍未确认，由SeckillTakeReconciler按下单结果确认或归还
+     */
+    public static final long SECKILL_TAKE_TIMEOUT_MILLIS = 120000L;
+    public static final long SECKILL_TAKE_RECONCILE_MILLIS = 60000L;
+    /**
+     * 用户已下单但订单一直没有写入数据库(例如进入死信队列)时，最多等待的时间，之后删除记录不再归还
+     */
+    public static final long SECKILL_TAKE_GIVE_UP_MILLIS = 1800000L;
+    /**
+     * 订单消息队列key的前缀，每个库存分片一个队列 stream.orders:{s<i>}
+     */
+    public static final String ORDER_STREAM_KEY = "stream.orders";
+    public static final String ORDER_STREAM_DEAD_LETTER_KEY = "stream.orders.dlq";
+    public static final String ORDER_STREAM_GROUP = "g1";
+    /**
+     * 每个节点上每个分片队列的消费者数
+     */
+    public static final int ORDER_STREAM_CONSUMERS = 2;
+    /**
+     * 每次XREADGROUP最多读取的消息数，也是批量创建订单的批次上限
+     */
+    public static final int ORDER_STREAM_BATCH_SIZE = 100;
+    public static final long ORDER_STREAM_BLOCK_MILLIS = 2000L;
+    public static final long ORDER_STREAM_CLAIM_IDLE_MILLIS = 60000L;
+    public static final long ORDER_STREAM_RECOVER_MILLIS = 30000L;
+    public static final int ORDER_STREAM_MAX_DELIVERIES = 5;
+    public static final long ORDER_STREAM_RATE_MILLIS = 10000L;
+    /**
+     * Redis不支持XTRIM MINID(6.2以前)时，每次回收最多删除的已确认消息数
+     */
+    public static final int ORDER_STREAM_TRIM_FALLBACK_COUNT = 10000;
+    public static final String CACHE_VOUCHER_LIST_KEY = "cache:voucher:list:";
+    public static final Long CACHE_VOUCHER_LIST_TTL = 30L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final double CACHE_BLOG_TTL_JITTER = 0.2;
 
     public static  final String FOLLOW_KEY = "follows:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_CHANGE_CHANNEL = "shop:change";
+    public static final int SHOP_GEO_SYNC_BATCH_SIZE = 500;
+    public static final long SHOP_GEO_DIFF_MILLIS = 600000L;
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀预热
+ * 1.定时加载即将开始(SECKILL_PREHEAT_AHEAD_MILLIS内)且未结束的秒杀券
+ * 2.每个库存分片写入一份秒杀信息 seckill:{s<i>}:meta:<voucherId>(begin、end，毫秒)，seckill.lua用Redis的时间判断时间窗口
+ * 3.库存用SETNX写入各分片，已经在秒杀中的库存不会被覆盖
+ * 4.本节点保存一份时间窗口，未开始或已结束的请求直接在内存中拒绝
+ * 请求路径上不再查询数据库；每人限购一单，由一人一单的集合和数据库唯一索引保证
+ */
+@Slf4j
+@Component
+public class SeckillPreheater implements ApplicationRunner {
+
+    /**
+     * 与seckill.lua的返回值一致
+     */
+    public static final int WINDOW_OPEN = 0;
+    public static final int WINDOW_NOT_STARTED = 4;
+    public static final int WINDOW_ENDED = 5;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * key为优惠券id
+     */
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        preheatAll();
+    }
+
+    /**
+     * 定时预热
+     */
+    @Scheduled(initialDelay = SECKILL_PREHEAT_MILLIS, fixedDelay = SECKILL_PREHEAT_MILLIS)
+    public void schedule() {
+        preheatAll();
+    }
+
+    /**
+     * 预热所有即将开始且未结束的秒杀券
+     * @return 预热的秒杀券数
+     */
+    public int preheatAll() {
+        try {
+            long now = System.currentTimeMillis();
+            //1.查询即将开始且未结束的秒杀券
+            List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                    .le("begin_time", toLocalDateTime(now + SECKILL_PREHEAT_AHEAD_MILLIS))
+                    .gt("end_time", toLocalDateTime(now)));
+            //2.逐个写入Redis和本地
+            for (SeckillVoucher voucher : vouchers) {
+                preheat(voucher);
+            }
+            //3.清理结束已久的本地时间窗口
+            windows.values().removeIf(window -> window.end + SECKILL_META_RETENTION_MILLIS < now);
+            if (!vouchers.isEmpty()) {
+                log.info("秒杀券预热完成，数量：{}", vouchers.size());
+            }
+            return vouchers.size();
+        } catch (Exception e) {
+            log.error("秒杀券预热失败", e);
+            return 0;
+        }
+    }
+
+    /**
+     * 预热单个秒杀券：各分片写入时间窗口，库存不存在时写入
+     */
+    public void preheat(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        long begin = toMillis(voucher.getBeginTime());
+        long end = toMillis(voucher.getEndTime());
+        Map<String, String> meta = new HashMap<>(2);
+        meta.put("begin", String.valueOf(begin));
+        meta.put("end", String.valueOf(end));
+        int[] stocks = SeckillShards.split(voucher.getStock() == null ? 0 : voucher.getStock());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int shard = 0; shard < stocks.length; shard++) {
+                String metaKey = SeckillShards.metaKey(voucherId, shard);
+                conn.hMSet(metaKey, meta);
+                conn.pExpireAt(metaKey, end + SECKILL_META_RETENTION_MILLIS);
+                conn.setNX(SeckillShards.stockKey(voucherId, shard), String.valueOf(stocks[shard]));
+            }
+            return null;
+        });
+        windows.put(voucherId, new Window(begin, end));
+    }
+
+    /**
+     * 本地判断时间窗口，没有预热过的秒杀券返回WINDOW_OPEN，由seckill.lua判断
+     */
+    public int checkWindow(Long voucherId) {
+        Window window = windows.get(voucherId);
+        if (window == null) {
+            return WINDOW_OPEN;
+        }
+        long now = System.currentTimeMillis();
+        if (now < window.begin) {
+            return WINDOW_NOT_STARTED;
+        }
+        if (now > window.end) {
+            return WINDOW_ENDED;
+        }
+        return WINDOW_OPEN;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private static class Window {
+        private final long begin;
+        private final long end;
+
+        Window(long begin, long end) {
+            this.begin = begin;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS;
+
+/**
+ * 秒杀库存分片
+ * 一张秒杀券的库存拆分到SECKILL_STOCK_SHARDS个分片，每个分片的key带有hash tag {s<i>}，集群中落在不同的slot
+ * 用户按id固定属于一个分片，一人一单的集合和订单消息队列都放在用户所属的分片上，保证一人一单在所有分片间仍然正确
+ * 1.库存 seckill:{s<i>}:stock:<voucherId>
+ * 2.已下单用户 seckill:{s<i>}:order:<voucherId>
+ * 3.订单消息队列 stream.orders:{s<i>}
+ * 4.秒杀信息(时间窗口) seckill:{s<i>}:meta:<voucherId>，每个分片一份，脚本只访问同一个slot
+ * 5.从该分片扣减、但还没有在用户所属分片上下单的库存 seckill:{s<i>}:taken，ZSET，分数为扣减时间
+ */
+public class SeckillShards {
+
+    private SeckillShards() {
+    }
+
+    public static String stockKey(Long voucherId, int shard) {
+        return "seckill:{s" + shard + "}:stock:" + voucherId;
+    }
+
+    public static String orderKey(Long voucherId, int shard) {
+        return "seckill:{s" + shard + "}:order:" + voucherId;
+    }
+
+    public static String metaKey(Long voucherId, int shard) {
+        return "seckill:{s" + shard + "}:meta:" + voucherId;
+    }
+
+    public static String takenKey(int shard) {
+        return "seckill:{s" + shard + "}:taken";
+    }
+
+    /**
+     * 未确认扣减的记录 <voucherId>:<userId>:<orderId>
+     */
+    public static String takenMember(Long voucherId, Long userId, long orderId) {
+        return voucherId + ":" + userId + ":" + orderId;
+    }
+
+    public static String streamKey(int shard) {
+        return ORDER_STREAM_KEY + ":{s" + shard + "}";
+    }
+
+    /**
+     * 用户所属的分片
+     */
+    public static int homeShard(Long userId) {
+        return (int) Math.floorMod(userId, (long) SECKILL_STOCK_SHARDS);
+    }
+
+    /**
+     * 把库存平均拆分到各个分片，余数分给前面的分片
+     */
+    public static int[] split(int total) {
+        int[] stocks = new int[SECKILL_STOCK_SHARDS];
+        for (int i = 0; i < SECKILL_STOCK_SHARDS; i++) {
+            stocks[i] = total / SECKILL_STOCK_SHARDS + (i < total % SECKILL_STOCK_SHARDS ? 1 : 0);
+        }
+        return stocks;
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TTL_MILLIS;
+
+/**
+ * 秒杀券的本地售罄标记
+ * 1.seckill.lua返回库存不足时在本节点标记售罄并广播，之后的请求直接在内存中拒绝，不再执行脚本
+ * 2.补充库存或重新配置秒杀券时清除标记并广播
+ * 3.标记带有过期时间，广播丢失或补货前的脚本结果晚到时，过期后由下一次脚本执行的结果纠正
+ * 广播消息格式：voucherId:1 售罄，voucherId:0 清除
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlags {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * key为优惠券id，value为标记的过期时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    /**
+     * 是否已售罄，只读本地内存
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄并通知其他节点，本节点已有有效标记时不重复广播
+     */
+    public void markSoldOut(Long voucherId) {
+        if (isSoldOut(voucherId)) {
+            return;
+        }
+        markLocal(voucherId);
+        publish(voucherId, true);
+    }
+
+    /**
+     * 清除售罄标记并通知其他节点
+     */
+    public void reset(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish(voucherId, false);
+    }
+
+    /**
+     * 处理其他节点的广播
+     */
+    public void onMessage(String message) {
+        int index = message.lastIndexOf(':');
+        Long voucherId = Long.valueOf(message.substring(0, index));
+        if ("1".equals(message.substring(index + 1))) {
+            markLocal(voucherId);
+        } else {
+            soldOut.remove(voucherId);
+        }
+    }
+
+    private void markLocal(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + SECKILL_SOLD_OUT_TTL_MILLIS);
+    }
+
+    private void publish(Long voucherId, boolean flag) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId + (flag ? ":1" : ":0"));
+        } catch (Exception e) {
+            //广播失败时其他节点的标记由过期时间兜底
+            log.error("广播售罄标记失败，voucherId：{}", voucherId, e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisServerCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 从其他分片扣减库存的对账
+ * 1.seckill_take.lua扣减库存时在该分片的 seckill:{s<i>}:taken 中记录扣减，下单后由请求删除
+ * 2.扣减和下单之间节点宕机、Redis超时，或删除记录失败时，记录超过SECKILL_TAKE_TIMEOUT_MILLIS仍然存在
+ * 3.定时按下单结果处理这些记录：用户没有下单，或数据库中该用户的订单不是这次请求的订单，归还库存；
+ *   订单就是这次请求的订单，只删除记录；订单还在消息队列中，等待下次对账
+ */
+@Slf4j
+@Component
+public class SeckillTakeReconciler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    private static final DefaultRedisScript<Long> STOCK_RELEASE_SCRIPT;
+    static {
+        STOCK_RELEASE_SCRIPT = new DefaultRedisScript<>();
+        STOCK_RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_release.lua"));
+        STOCK_RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 定时对账
+     */
+    @Scheduled(initialDelay = SECKILL_TAKE_RECONCILE_MILLIS, fixedDelay = SECKILL_TAKE_RECONCILE_MILLIS)
+    public void schedule() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败", e);
+        }
+    }
+
+    /**
+     * 处理所有分片上超时未确认的扣减
+     * @return 归还的库存数
+     */
+    public int reconcile() {
+        //1.用Redis的时间判断超时，与脚本记录扣减的时间一致
+        Long now = stringRedisTemplate.execute((RedisCallback<Long>) RedisServerCommands::time);
+        if (now == null) {
+            return 0;
+        }
+        int refunded = 0;
+        for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+            String takenKey = SeckillShards.takenKey(shard);
+            Set<String> members = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(takenKey, 0, now - SECKILL_TAKE_TIMEOUT_MILLIS);
+            if (members == null) {
+                continue;
+            }
+            for (String member : members) {
+                Double takenAt = stringRedisTemplate.opsForZSet().score(takenKey, member);
+                if (takenAt == null) {
+                    //请求已经处理
+                    continue;
+                }
+                refunded += reconcileOne(shard, member, now - takenAt.longValue());
+            }
+        }
+        return refunded;
+    }
+
+    /**
+     * @return 归还的库存数
+     */
+    private int reconcileOne(int shard, String member, long age) {
+        //1.解析记录 <voucherId>:<userId>:<orderId>
+        String[] parts = StrUtil.splitToArray(member, ':');
+        Long voucherId = Long.valueOf(parts[0]);
+        Long userId = Long.valueOf(parts[1]);
+        long orderId = Long.parseLong(parts[2]);
+        //2.用户没有在所属分片上下单，归还库存
+        String orderKey = SeckillShards.orderKey(voucherId, SeckillShards.homeShard(userId));
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(orderKey, userId.toString()))) {
+            return release(voucherId, shard, member, true);
+        }
+        //3.用户已下单，按数据库中的订单判断是否是这次请求的订单
+        VoucherOrder order = voucherOrderMapper.selectOne(new QueryWrapper<VoucherOrder>()
+                .eq("user_id", userId).eq("voucher_id", voucherId));
+        if (order != null) {
+            return release(voucherId, shard, member, order.getId() != orderId);
+        }
+        //4.订单还在消息队列中，等待下次对账；等待太久的只删除记录，不归还
+        if (age >= SECKILL_TAKE_GIVE_UP_MILLIS) {
+            log.warn("分片{}的扣减记录{}一直没有对应的订单，删除记录，不归还库存", shard, member);
+            release(voucherId, shard, member, false);
+        }
+        return 0;
+    }
+
+    private int release(Long voucherId, int shard, String member, boolean refund) {
+        Long released = stringRedisTemplate.execute(
+                STOCK_RELEASE_SCRIPT,
+                Arrays.asList(SeckillShards.takenKey(shard), SeckillShards.stockKey(voucherId, shard)),
+                member,
+                refund ? "1" : "0"
+        );
+        if (refund && released != null && released == 1) {
+            log.info("归还分片{}未确认的扣减{}", shard, member);
+            return 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,12 @@
+package com.hmdp.utils;
+
+/**
+ * 店铺变更监听，店铺新增、修改、删除后所有节点都会收到通知
+ */
+public interface ShopChangeListener {
+
+    /**
+     * @param shopId 发生变更的店铺id
+     */
+    void onShopChanged(Long shopId);
+}
@@ -0,0 +1,124 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.SystemConstants.SHOP_GEO_CELL_DEGREES;
+
+/**
+ * 店铺地理位置索引，每个店铺类型一个网格索引
+ * 启动时从数据库加载，之后通过店铺变更通知保持同步，附近店铺查询不再依赖Redis GEOSEARCH
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements ShopChangeListener {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * key为店铺类型id
+     */
+    private final Map<Long, GeoGridIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * 店铺当前所属的类型，类型变化时从旧索引中移除
+     */
+    private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void load() {
+        try {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select("id", "type_id", "x", "y"));
+            for (Shop shop : shops) {
+                put(shop);
+            }
+            ready = true;
+            log.info("店铺地理位置索引加载完成，店铺数：{}", shops.size());
+        } catch (Exception e) {
+            //加载失败时使用Redis GEO查询
+            log.error("店铺地理位置索引加载失败", e);
+        }
+    }
+
+    /**
+     * 索引是否可用，不可用时调用方回退到Redis GEO
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void put(Shop shop) {
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        Long oldType = shopTypes.put(shop.getId(), shop.getTypeId());
+        if (oldType != null && !oldType.equals(shop.getTypeId())) {
+            GeoGridIndex oldIndex = indexes.get(oldType);
+            if (oldIndex != null) {
+                oldIndex.remove(shop.getId());
+            }
+        }
+        indexes.computeIfAbsent(shop.getTypeId(), k -> new GeoGridIndex(SHOP_GEO_CELL_DEGREES))
+                .put(shop.getId(), shop.getX(), shop.getY());
+    }
+
+    public void remove(Long shopId) {
+        Long typeId = shopTypes.remove(shopId);
+        GeoGridIndex index = typeId == null ? null : indexes.get(typeId);
+        if (index != null) {
+            index.remove(shopId);
+        }
+    }
+
+    /**
+     * 范围查询，按距离从近到远返回
+     * @param radius 半径，单位米
+     * @param limit 最多返回的条数
+     */
+    public List<GeoGridIndex.Hit> search(Long typeId, double x, double y, double radius, int limit) {
+        GeoGridIndex index = indexes.get(typeId);
+        return index == null ? Collections.emptyList() : index.radius(x, y, radius, limit);
+    }
+
+    /**
+     * 游标分页查询：返回排在(lastDistance, lastId)之后的limit个店铺，按距离从近到远返回
+     * @param radius 半径，单位米
+     */
+    public List<GeoGridIndex.Hit> searchAfter(Long typeId, double x, double y, double radius,
+                                              double lastDistance, long lastId, int limit) {
+        GeoGridIndex index = indexes.get(typeId);
+        return index == null ? Collections.emptyList() : index.nearestAfter(x, y, lastDistance, lastId, limit, radius);
+    }
+
+    /**
+     * 最近的k个店铺，按距离从近到远返回
+     * @param maxDistance 最远距离，单位米
+     */
+    public List<GeoGridIndex.Hit> nearest(Long typeId, double x, double y, int k, double maxDistance) {
+        GeoGridIndex index = indexes.get(typeId);
+        return index == null ? Collections.emptyList() : index.nearest(x, y, k, maxDistance);
+    }
+
+    @Override
+    public void onShopChanged(Long shopId) {
+        Shop shop = shopMapper.selectById(shopId);
+        if (shop == null) {
+            remove(shopId);
+        } else {
+            put(shop);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 同步店铺坐标到Redis GEO(shop:geo:{typeId})
+ * 1.启动时通过游标流式读取所有店铺，分批用管道GEOADD写入
+ * 2.店铺新增、修改、删除的事务提交后同步单个店铺，类型变化时从旧类型的key中移除
+ * 3.定时对账：按id分批比较数据库与GEOPOS的结果，再ZSCAN各类型的key删除多余的成员，内存中只保留一批数据
+ */
+@Slf4j
+@Component
+public class ShopGeoSync implements ApplicationRunner {
+
+    /**
+     * GEO坐标按52位geohash存储，精度约0.6米，比较时允许的误差(度)
+     */
+    private static final double POSITION_TOLERANCE = 1e-5;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            //失败不影响启动，定时对账会补齐
+            log.error("店铺地理位置同步失败", e);
+        }
+    }
+
+    /**
+     * 把所有店铺的坐标写入Redis
+     * @return 写入的店铺数
+     */
+    public int reconcile() {
+        long begin = System.currentTimeMillis();
+        //游标需要在同一个连接内遍历，放在只读事务中执行
+        Integer count = transactionTemplate.execute(status -> {
+            int total = 0;
+            List<Shop> batch = new ArrayList<>(SHOP_GEO_SYNC_BATCH_SIZE);
+            try (Cursor<Shop> cursor = shopMapper.scanShopLocations()) {
+                for (Shop shop : cursor) {
+                    batch.add(shop);
+                    if (batch.size() >= SHOP_GEO_SYNC_BATCH_SIZE) {
+                        total += geoAdd(batch);
+                        batch.clear();
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return total + geoAdd(batch);
+        });
+        log.info("店铺地理位置同步完成，写入{}条，耗时{}ms", count, System.currentTimeMillis() - begin);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 同步单个店铺：店铺不存在时从所有类型中移除，存在时写入当前类型并从其他类型中移除
+     * 在店铺变更的事务提交后调用
+     */
+    public void sync(Long shopId) {
+        Shop shop = shopMapper.selectById(shopId);
+        List<Long> typeIds = listTypeIds();
+        String member = shopId.toString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long typeId : typeIds) {
+                if (shop == null || !typeId.equals(shop.getTypeId())) {
+                    conn.zRem(SHOP_GEO_KEY + typeId, member);
+                }
+            }
+            if (isLocated(shop)) {
+                conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), member);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 定时对账
+     */
+    @Scheduled(initialDelay = SHOP_GEO_DIFF_MILLIS, fixedDelay = SHOP_GEO_DIFF_MILLIS)
+    public void diff() {
+        try {
+            long begin = System.currentTimeMillis();
+            int fixed = diffMissing();
+            int removed = diffStale();
+            log.info("店铺地理位置对账完成，修复{}条，删除{}条，耗时{}ms", fixed, removed, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺地理位置对账失败", e);
+        }
+    }
+
+    /**
+     * 按id分批读取数据库，补齐Redis中缺失或坐标不一致的店铺
+     * @return 修复的店铺数
+     */
+    private int diffMissing() {
+        int fixed = 0;
+        long lastId = 0;
+        while (true) {
+            //1.按主键分页读取一批店铺
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SHOP_GEO_SYNC_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                return fixed;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            List<Shop> located = shops.stream().filter(ShopGeoSync::isLocated).collect(Collectors.toList());
+            //2.管道查询这批店铺在Redis中的坐标
+            List<Object> positions = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Shop shop : located) {
+                    conn.geoPos(SHOP_GEO_KEY + shop.getTypeId(), shop.getId().toString());
+                }
+                return null;
+            });
+            //3.缺失或坐标不一致的重新写入
+            List<Shop> mismatched = new ArrayList<>();
+            for (int i = 0; i < located.size(); i++) {
+                if (!samePosition(located.get(i), positions.get(i))) {
+                    mismatched.add(located.get(i));
+                }
+            }
+            fixed += geoAdd(mismatched);
+            if (shops.size() < SHOP_GEO_SYNC_BATCH_SIZE) {
+                return fixed;
+            }
+        }
+    }
+
+    /**
+     * 逐个类型ZSCAN，删除数据库中已不存在或已换类型的店铺
+     * @return 删除的成员数
+     */
+    private int diffStale() {
+        int removed = 0;
+        for (Long typeId : listTypeIds()) {
+            String key = SHOP_GEO_KEY + typeId;
+            List<String> members = new ArrayList<>(SHOP_GEO_SYNC_BATCH_SIZE);
+            try (org.springframework.data.redis.core.Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet()
+                    .scan(key, ScanOptions.scanOptions().count(SHOP_GEO_SYNC_BATCH_SIZE).build())) {
+                while (cursor.hasNext()) {
+                    members.add(cursor.next().getValue());
+                    if (members.size() >= SHOP_GEO_SYNC_BATCH_SIZE) {
+                        removed += removeStale(key, typeId, members);
+                        members.clear();
+                    }
+                }
+            }
+            removed += removeStale(key, typeId, members);
+        }
+        return removed;
+    }
+
+    private int removeStale(String key, Long typeId, List<String> members) {
+        if (members.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, Shop> shops = new HashMap<>(ids.size());
+        for (Shop shop : shopMapper.selectList(new QueryWrapper<Shop>().select("id", "type_id", "x", "y").in("id", ids))) {
+            shops.put(shop.getId(), shop);
+        }
+        List<String> stale = new ArrayList<>();
+        for (String member : members) {
+            Shop shop = shops.get(Long.valueOf(member));
+            if (!isLocated(shop) || !typeId.equals(shop.getTypeId())) {
+                stale.add(member);
+            }
+        }
+        if (!stale.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(key, stale.toArray());
+        }
+        return stale.size();
+    }
+
+    /**
+     * 管道写入一批店铺坐标，按类型分组，每个类型一条GEOADD
+     * @return 写入的店铺数
+     */
+    private int geoAdd(List<Shop> shops) {
+        Map<Long, Map<String, Point>> byType = new HashMap<>();
+        int count = 0;
+        for (Shop shop : shops) {
+            if (isLocated(shop)) {
+                byType.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                        .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+                count++;
+            }
+        }
+        if (byType.isEmpty()) {
+            return 0;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<Long, Map<String, Point>> entry : byType.entrySet()) {
+                conn.geoAdd(SHOP_GEO_KEY + entry.getKey(), entry.getValue());
+            }
+            return null;
+        });
+        return count;
+    }
+
+    private List<Long> listTypeIds() {
+        return shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))
+                .stream().map(ShopType::getId).collect(Collectors.toList());
+    }
+
+    private static boolean isLocated(Shop shop) {
+        return shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean samePosition(Shop shop, Object position) {
+        //GEOPOS返回List<Point>，成员不存在时元素为null
+        if (!(position instanceof List) || ((List<Object>) position).isEmpty()) {
+            return false;
+        }
+        Object point = ((List<Object>) position).get(0);
+        if (!(point instanceof Point)) {
+            return false;
+        }
+        return Math.abs(((Point) point).getX() - shop.getX()) < POSITION_TOLERANCE
+                && Math.abs(((Point) point).getY() - shop.getY()) < POSITION_TOLERANCE;
+    }
+}
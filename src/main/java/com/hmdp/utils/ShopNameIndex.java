@@ -0,0 +1,290 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 店铺名称的倒排索引
+ * 1.名称统一转为小写，按单字和相邻两字(bigram)建立倒排表，中文名称按字切分即可，不需要分词
+ * 2.查询时取关键字所有bigram倒排表的交集，再确认名称包含关键字，结果与LIKE '%name%'一致
+ * 3.按名称排序的TreeMap支持前缀补全
+ * 启动时从数据库加载，之后通过店铺变更通知保持同步，名称查询不再访问数据库
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements ShopChangeListener {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * 单字和bigram的倒排表
+     */
+    private final Map<String, Set<Long>> postings = new HashMap<>();
+
+    /**
+     * 已索引的店铺
+     */
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    /**
+     * 小写名称到店铺id，用于前缀补全
+     */
+    private final NavigableMap<String, Set<Long>> names = new TreeMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void load() {
+        try {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select("id", "name", "sold"));
+            for (Shop shop : shops) {
+                put(shop);
+            }
+            ready = true;
+            log.info("店铺名称索引加载完成，店铺数：{}", shops.size());
+        } catch (Exception e) {
+            //加载失败时查询数据库
+            log.error("店铺名称索引加载失败", e);
+        }
+    }
+
+    /**
+     * 索引是否可用，不可用时调用方回退到数据库查询
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void put(Shop shop) {
+        if (shop.getId() == null || shop.getName() == null) {
+            return;
+        }
+        Entry entry = new Entry(shop.getId(), shop.getName(), normalize(shop.getName()),
+                shop.getSold() == null ? 0 : shop.getSold());
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.put(entry.id, entry);
+            if (old != null) {
+                unindex(old);
+            }
+            for (String gram : grams(entry.normalized)) {
+                postings.computeIfAbsent(gram, k -> new HashSet<>()).add(entry.id);
+            }
+            names.computeIfAbsent(entry.normalized, k -> new HashSet<>()).add(entry.id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long shopId) {
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(shopId);
+            if (old != null) {
+                unindex(old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按名称关键字查询店铺id
+     * 排序：名称与关键字相同 > 名称以关键字开头 > 关键字出现的位置靠前 > 销量高 > id小
+     * 关键字为空时按id返回所有店铺
+     * @param from 跳过的条数
+     * @param limit 最多返回的条数
+     */
+    public List<Long> search(String keyword, int from, int limit) {
+        String query = normalize(keyword);
+        lock.readLock().lock();
+        try {
+            List<Entry> matches;
+            if (query.isEmpty()) {
+                matches = new ArrayList<>(entries.values());
+                matches.sort(Comparator.comparingLong(e -> e.id));
+            } else {
+                matches = match(query);
+                matches.sort(Comparator.<Entry>comparingInt(e -> e.normalized.equals(query) ? 0 : 1)
+                        .thenComparingInt(e -> e.normalized.indexOf(query))
+                        .thenComparing(Comparator.<Entry>comparingInt(e -> e.sold).reversed())
+                        .thenComparingLong(e -> e.id));
+            }
+            List<Long> ids = new ArrayList<>(Math.min(limit, Math.max(matches.size() - from, 0)));
+            for (int i = from; i < matches.size() && ids.size() < limit; i++) {
+                ids.add(matches.get(i).id);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 前缀补全，返回以prefix开头的店铺名称，按销量从高到低
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String query = normalize(prefix);
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            List<Entry> matches = new ArrayList<>();
+            for (Set<Long> ids : names.subMap(query, true, query + Character.MAX_VALUE, false).values()) {
+                for (Long id : ids) {
+                    matches.add(entries.get(id));
+                }
+            }
+            matches.sort(Comparator.<Entry>comparingInt(e -> e.sold).reversed().thenComparingLong(e -> e.id));
+            //同名店铺只返回一次
+            Set<String> result = new LinkedHashSet<>();
+            for (Entry entry : matches) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                result.add(entry.name);
+            }
+            return new ArrayList<>(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onShopChanged(Long shopId) {
+        Shop shop = shopMapper.selectById(shopId);
+        if (shop == null) {
+            remove(shopId);
+        } else {
+            put(shop);
+        }
+    }
+
+    /**
+     * 名称包含关键字的店铺，调用时需持有读锁
+     */
+    private List<Entry> match(String query) {
+        //1.单字查询直接使用单字倒排表
+        if (query.length() == 1) {
+            Set<Long> ids = postings.get(query);
+            return ids == null ? new ArrayList<>() : toEntries(ids);
+        }
+        //2.取各bigram倒排表中最短的一个作为候选
+        Set<Long> smallest = null;
+        List<Set<Long>> lists = new ArrayList<>();
+        for (String gram : bigrams(query)) {
+            Set<Long> ids = postings.get(gram);
+            if (ids == null) {
+                return new ArrayList<>();
+            }
+            lists.add(ids);
+            if (smallest == null || ids.size() < smallest.size()) {
+                smallest = ids;
+            }
+        }
+        //3.候选与其余倒排表求交集，再确认名称中连续出现关键字
+        List<Entry> result = new ArrayList<>();
+        outer:
+        for (Long id : smallest) {
+            for (Set<Long> ids : lists) {
+                if (ids != smallest && !ids.contains(id)) {
+                    continue outer;
+                }
+            }
+            Entry entry = entries.get(id);
+            if (entry.normalized.contains(query)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private List<Entry> toEntries(Set<Long> ids) {
+        List<Entry> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            result.add(entries.get(id));
+        }
+        return result;
+    }
+
+    private void unindex(Entry entry) {
+        for (String gram : grams(entry.normalized)) {
+            Set<Long> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(entry.id);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+        Set<Long> ids = names.get(entry.normalized);
+        if (ids != null) {
+            ids.remove(entry.id);
+            if (ids.isEmpty()) {
+                names.remove(entry.normalized);
+            }
+        }
+    }
+
+    /**
+     * 名称中所有的单字和bigram
+     */
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+        }
+        grams.addAll(bigrams(text));
+        return grams;
+    }
+
+    private static Set<String> bigrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 2 <= text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    private static String normalize(String text) {
+        return StrUtil.isBlank(text) ? "" : text.trim().toLowerCase();
+    }
+
+    private static class Entry {
+        private final long id;
+        private final String name;
+        private final String normalized;
+        private final int sold;
+
+        Entry(long id, String name, String normalized, int sold) {
+            this.id = id;
+            this.name = name;
+            this.normalized = normalized;
+            this.sold = sold;
+        }
+    }
+}
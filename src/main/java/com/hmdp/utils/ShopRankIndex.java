@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * 店铺排行索引，每个店铺类型按评分、销量、人均价格各维护一个有序集合
+ * 1.分类页按排行分页时从有序集合中顺序读取，不需要在数据库中对整个类型排序
+ * 2.附近店铺按排行排序时，先从地理位置索引取出半径内的店铺，再按排行的值排序
+ * 启动时从数据库加载，之后通过店铺变更通知保持同步
+ * 分页时按需生成排行的id数组快照，任意页都只读取limit个元素；店铺变化时清除所在类型的快照
+ */
+@Slf4j
+@Component
+public class ShopRankIndex implements ShopChangeListener {
+
+    /**
+     * 排序方式
+     */
+    public enum SortBy {
+        /**
+         * 评分从高到低
+         */
+        SCORE(e -> e.score, true),
+        /**
+         * 销量从高到低
+         */
+        SOLD(e -> e.sold, true),
+        /**
+         * 人均价格从低到高
+         */
+        PRICE(e -> e.price, false);
+
+        private final Comparator<Entry> comparator;
+
+        SortBy(ToLongFunction<Entry> value, boolean descending) {
+            Comparator<Entry> byValue = Comparator.comparingLong(value);
+            //值相同时按id排序，保证分页稳定
+            this.comparator = (descending ? byValue.reversed() : byValue).thenComparingLong(e -> e.id);
+        }
+
+        /**
+         * 解析排序参数，不支持时返回null
+         */
+        public static SortBy of(String name) {
+            for (SortBy sortBy : values()) {
+                if (sortBy.name().equalsIgnoreCase(name)) {
+                    return sortBy;
+                }
+            }
+            return null;
+        }
+    }
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    /**
+     * key为店铺类型id
+     */
+    private final Map<Long, Map<SortBy, TreeSet<Entry>>> rankings = new HashMap<>();
+
+    /**
+     * 排行的id数组快照，key为店铺类型id，数组下标为SortBy的序号
+     * 在读锁内生成，多个读线程生成的结果相同；写锁内清除
+     */
+    private final Map<Long, AtomicReferenceArray<long[]>> snapshots = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void load() {
+        try {
+            List<Shop> shops = shopMapper.selectList(
+                    new QueryWrapper<Shop>().select("id", "type_id", "score", "sold", "avg_price"));
+            for (Shop shop : shops) {
+                put(shop);
+            }
+            ready = true;
+            log.info("店铺排行索引加载完成，店铺数：{}", shops.size());
+        } catch (Exception e) {
+            //加载失败时按数据库排序
+            log.error("店铺排行索引加载失败", e);
+        }
+    }
+
+    /**
+     * 索引是否可用，不可用时调用方回退到数据库排序
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void put(Shop shop) {
+        if (shop.getId() == null || shop.getTypeId() == null) {
+            return;
+        }
+        Entry entry = new Entry(shop.getId(), shop.getTypeId(), valueOf(shop.getScore()),
+                valueOf(shop.getSold()), shop.getAvgPrice() == null ? 0 : shop.getAvgPrice());
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.put(entry.id, entry);
+            if (old != null) {
+                unindex(old);
+            }
+            snapshots.remove(entry.typeId);
+            Map<SortBy, TreeSet<Entry>> typeRankings = rankings.computeIfAbsent(entry.typeId, k -> new EnumMap<>(SortBy.class));
+            for (SortBy sortBy : SortBy.values()) {
+                typeRankings.computeIfAbsent(sortBy, k -> new TreeSet<>(k.comparator)).add(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long shopId) {
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(shopId);
+            if (old != null) {
+                unindex(old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 分类排行分页
+     * @param from 跳过的条数
+     * @param limit 最多返回的条数
+     * @return 店铺id，按排行顺序
+     */
+    public List<Long> top(Long typeId, SortBy sortBy, int from, int limit) {
+        lock.readLock().lock();
+        try {
+            Map<SortBy, TreeSet<Entry>> typeRankings = rankings.get(typeId);
+            if (typeRankings == null) {
+                return new ArrayList<>();
+            }
+            long[] ranking = snapshot(typeId, sortBy, typeRankings.get(sortBy));
+            List<Long> ids = new ArrayList<>(Math.max(Math.min(limit, ranking.length - from), 0));
+            for (int i = from; i < ranking.length && ids.size() < limit; i++) {
+                ids.add(ranking[i]);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 把地理位置查询的结果按排行排序，不在索引中的店铺排在最后
+     */
+    public List<GeoGridIndex.Hit> sort(List<GeoGridIndex.Hit> hits, SortBy sortBy) {
+        List<GeoGridIndex.Hit> sorted = new ArrayList<>(hits);
+        lock.readLock().lock();
+        try {
+            sorted.sort((a, b) -> {
+                Entry ea = entries.get(a.getId());
+                Entry eb = entries.get(b.getId());
+                if (ea == null || eb == null) {
+                    return ea == null ? (eb == null ? Long.compare(a.getId(), b.getId()) : 1) : -1;
+                }
+                return sortBy.comparator.compare(ea, eb);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return sorted;
+    }
+
+    @Override
+    public void onShopChanged(Long shopId) {
+        Shop shop = shopMapper.selectById(shopId);
+        if (shop == null) {
+            remove(shopId);
+        } else {
+            put(shop);
+        }
+    }
+
+    /**
+     * 读取或生成排行快照，调用方持有读锁
+     */
+    private long[] snapshot(Long typeId, SortBy sortBy, TreeSet<Entry> ranking) {
+        AtomicReferenceArray<long[]> typeSnapshots = snapshots.computeIfAbsent(
+                typeId, k -> new AtomicReferenceArray<>(SortBy.values().length));
+        long[] ids = typeSnapshots.get(sortBy.ordinal());
+        if (ids == null) {
+            ids = ranking.stream().mapToLong(e -> e.id).toArray();
+            typeSnapshots.set(sortBy.ordinal(), ids);
+        }
+        return ids;
+    }
+
+    private void unindex(Entry entry) {
+        snapshots.remove(entry.typeId);
+        Map<SortBy, TreeSet<Entry>> typeRankings = rankings.get(entry.typeId);
+        if (typeRankings == null) {
+            return;
+        }
+        for (TreeSet<Entry> ranking : typeRankings.values()) {
+            ranking.remove(entry);
+        }
+    }
+
+    private static long valueOf(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static class Entry {
+        private final long id;
+        private final long typeId;
+        private final long score;
+        private final long sold;
+        private final long price;
+
+        Entry(long id, long typeId, long score, long sold, long price) {
+            this.id = id;
+            this.typeId = typeId;
+            this.score = score;
+            this.sold = sold;
+            this.price = price;
+        }
+    }
+}
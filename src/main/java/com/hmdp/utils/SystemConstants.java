@@ -5,4 +5,14 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final double SHOP_GEO_RADIUS = 5000;
+    public static final double SHOP_GEO_CELL_DEGREES = 0.01;
+    public static final int SHOP_NAME_SUGGEST_SIZE = 10;
+    public static final int SHOP_DETAIL_THREADS = 16;
+    public static final int SHOP_DETAIL_QUEUE_CAPACITY = 256;
+    public static final long SHOP_DETAIL_SHOP_TIMEOUT_MILLIS = 500L;
+    public static final long SHOP_DETAIL_VOUCHER_TIMEOUT_MILLIS = 300L;
+    public static final long SHOP_DETAIL_BLOG_TIMEOUT_MILLIS = 300L;
+    public static final int SHOP_DETAIL_BLOG_SIZE = 5;
+    public static final int SHOP_RESPONSE_CACHE_SIZE = 1000;
 }
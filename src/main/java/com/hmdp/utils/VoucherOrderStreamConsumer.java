@@ -0,0 +1,403 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单消息的消费者
+ * 1.seckill.lua判断购买资格后在同一个脚本中XADD到用户所属分片的队列stream.orders:{s<i>}，订单消息不再保存在JVM内存中
+ * 2.每个节点为每个分片的队列启动ORDER_STREAM_CONSUMERS个消费者，通过XREADGROUP从同一个消费者组读取，处理成功后XACK
+ * 3.消费者启动时先处理自己未确认的消息；定时通过XPENDING找出长时间未确认的消息，XCLAIM到本节点重新处理
+ * 4.多次投递仍然失败的消息转入死信队列，避免一直重试
+ * 6.回收时按最早的未确认消息XTRIM MINID，删除已经确认的消息，队列不会无限增长
+ * 5.一次XREADGROUP读到的消息作为一个批次处理：按优惠券分组一次扣减库存、批量插入订单，一条XACK确认整批
+ */
+@Slf4j
+@Component
+public class VoucherOrderStreamConsumer {
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource("stream_trim.lua"));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * 消费者名称的前缀：进程id@主机名
+     */
+    private final String consumerPrefix = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(SECKILL_STOCK_SHARDS * ORDER_STREAM_CONSUMERS, r -> {
+        Thread thread = new Thread(r, "order-stream-" + threadIndex.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running = true;
+
+    /**
+     * 每个消费者处理成功的消息数，key为 队列/消费者名称
+     */
+    private final Map<String, LongAdder> processed = new ConcurrentHashMap<>();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder deadLetters = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    /**
+     * 每个批次的处理耗时
+     */
+    private final LatencyHistogram handleLatency = new LatencyHistogram();
+
+    /**
+     * 最近一个统计周期的处理速度(条/秒)
+     */
+    private volatile double processedPerSecond;
+    private long lastProcessed;
+    private long lastRateMillis = System.currentTimeMillis();
+
+    @PostConstruct
+    public void start() {
+        for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+            String streamKey = SeckillShards.streamKey(shard);
+            createGroup(streamKey);
+            for (int i = 1; i <= ORDER_STREAM_CONSUMERS; i++) {
+                String consumerName = consumerPrefix + "-" + i;
+                processed.put(streamKey + "/" + consumerName, new LongAdder());
+                executor.submit(() -> consume(streamKey, consumerName));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        executor.shutdown();
+    }
+
+    /**
+     * 定时回收：已死亡或处理卡住的消费者名下长时间未确认的消息，转移到本节点处理
+     */
+    @Scheduled(fixedDelay = ORDER_STREAM_RECOVER_MILLIS)
+    public void recover() {
+        for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+            String streamKey = SeckillShards.streamKey(shard);
+            try {
+                recover(streamKey);
+            } catch (Exception e) {
+                log.error("回收订单消息失败，stream：{}", streamKey, e);
+            }
+        }
+    }
+
+    private void recover(String streamKey) {
+        try {
+            recoverPending(streamKey);
+        } finally {
+            trim(streamKey);
+        }
+    }
+
+    /**
+     * 删除已经确认的消息：比最早的未确认消息更早的消息都已经确认；没有未确认消息时，已投递过的消息都已确认
+     * XTRIM stream.orders:{s0} MINID id，只在定时回收时执行；Redis 6.2以前不支持MINID，脚本改用XTRIM MAXLEN ~
+     */
+    private void trim(String streamKey) {
+        //先读取已投递的位置，再读取未确认消息：读取期间新投递的消息都比这个位置更新，不会被删除
+        String lastDeliveredId = stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                .filter(group -> ORDER_STREAM_GROUP.equals(group.groupName()))
+                .map(StreamInfo.XInfoGroup::lastDeliveredId)
+                .findFirst()
+                .orElse(null);
+        if (lastDeliveredId == null) {
+            return;
+        }
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, ORDER_STREAM_GROUP);
+        String minId;
+        if (summary != null && summary.getTotalPendingMessages() > 0) {
+            minId = summary.minMessageId();
+        } else {
+            //已投递的消息都已确认，MINID保留等于minId的消息，把序号加一
+            RecordId last = RecordId.of(lastDeliveredId);
+            minId = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+        Long trimmed = stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(streamKey),
+                minId, String.valueOf(ORDER_STREAM_TRIM_FALLBACK_COUNT));
+        if (trimmed != null && trimmed > 0) {
+            log.debug("删除已确认的订单消息{}条，stream：{}", trimmed, streamKey);
+        }
+    }
+
+    private void recoverPending(String streamKey) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                streamKey, ORDER_STREAM_GROUP, Range.unbounded(), (long) ORDER_STREAM_BATCH_SIZE * 10);
+        List<RecordId> idle = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().toMillis() < ORDER_STREAM_CLAIM_IDLE_MILLIS) {
+                continue;
+            }
+            if (message.getTotalDeliveryCount() >= ORDER_STREAM_MAX_DELIVERIES) {
+                deadLetter(streamKey, message.getId());
+            } else {
+                idle.add(message.getId());
+            }
+        }
+        if (idle.isEmpty()) {
+            return;
+        }
+        //XCLAIM时再次检查空闲时间，其他节点已经认领的消息不会重复认领
+        String consumerName = consumerPrefix + "-recover";
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(raw(streamKey), ORDER_STREAM_GROUP, consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdle(Duration.ofMillis(ORDER_STREAM_CLAIM_IDLE_MILLIS))
+                                .ids(idle.toArray(new RecordId[0]))));
+        if (records == null) {
+            return;
+        }
+        processed.computeIfAbsent(streamKey + "/" + consumerName, k -> new LongAdder());
+        Map<RecordId, Map<String, String>> messages = new LinkedHashMap<>();
+        for (ByteRecord record : records) {
+            claimed.increment();
+            Map<String, String> value = new HashMap<>();
+            record.getValue().forEach((k, v) -> value.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+            messages.put(record.getId(), value);
+        }
+        handle(streamKey, consumerName, messages);
+        log.info("回收未确认的订单消息{}条，stream：{}", records.size(), streamKey);
+    }
+
+    /**
+     * 统计最近一个周期的处理速度
+     */
+    @Scheduled(fixedDelay = ORDER_STREAM_RATE_MILLIS)
+    public synchronized void sampleRate() {
+        long now = System.currentTimeMillis();
+        long total = totalProcessed();
+        processedPerSecond = (total - lastProcessed) * 1000.0 / Math.max(now - lastRateMillis, 1);
+        lastProcessed = total;
+        lastRateMillis = now;
+    }
+
+    /**
+     * 队列长度、消费者组进度、未确认消息数，以及本节点的处理情况
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Map<String, Object> streams = new LinkedHashMap<>();
+        for (int shard = 0; shard < SECKILL_STOCK_SHARDS; shard++) {
+            String streamKey = SeckillShards.streamKey(shard);
+            Map<String, Object> stream = new LinkedHashMap<>();
+            StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(streamKey);
+            stream.put("length", info.streamLength());
+            stream.put("lastGeneratedId", info.lastGeneratedId());
+            stringRedisTemplate.opsForStream().groups(streamKey).forEach(group -> {
+                if (ORDER_STREAM_GROUP.equals(group.groupName())) {
+                    stream.put("lastDeliveredId", group.lastDeliveredId());
+                    stream.put("pending", group.pendingCount());
+                    stream.put("consumers", group.consumerCount());
+                }
+            });
+            streams.put(streamKey, stream);
+        }
+        stats.put("streams", streams);
+        Map<String, Long> consumers = new LinkedHashMap<>();
+        processed.forEach((name, count) -> consumers.put(name, count.sum()));
+        stats.put("processed", consumers);
+        stats.put("processedPerSecond", processedPerSecond);
+        stats.put("failed", failed.sum());
+        stats.put("claimed", claimed.sum());
+        stats.put("deadLetters", deadLetters.sum());
+        stats.put("batches", batches.sum());
+        stats.put("handleLatencyMicros", handleLatency.summary());
+        return stats;
+    }
+
+    private void consume(String streamKey, String consumerName) {
+        //1.先处理自己名下未确认的消息，例如上次进程退出时正在处理的
+        //  每条只处理一次，读取历史消息时BLOCK不生效，仍然失败的留给recover()重试或转入死信队列
+        ReadOffset offset = ReadOffset.from("0");
+        boolean history = true;
+        while (running) {
+            try {
+                //2.读取消息 XREADGROUP GROUP g1 c1 COUNT 100 BLOCK 2000 STREAMS stream.orders:{s0} >
+                //  有消息时立即返回已到达的消息(最多COUNT条)，批次大小随流量自适应
+                //  read(Consumer, StreamReadOptions, StreamOffset...)的可变参数是泛型数组
+                @SuppressWarnings("unchecked")
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(ORDER_STREAM_GROUP, consumerName),
+                        StreamReadOptions.empty().count(ORDER_STREAM_BATCH_SIZE).block(Duration.ofMillis(ORDER_STREAM_BLOCK_MILLIS)),
+                        StreamOffset.create(streamKey, offset));
+                if (list == null || list.isEmpty()) {
+                    //未确认的消息处理完，开始读取新消息
+                    offset = ReadOffset.lastConsumed();
+                    history = false;
+                    continue;
+                }
+                if (history) {
+                    //下一次从这批最后一条之后读取
+                    offset = ReadOffset.from(list.get(list.size() - 1).getId());
+                }
+                //3.整批创建订单并确认
+                Map<RecordId, Map<String, String>> messages = new LinkedHashMap<>();
+                for (MapRecord<String, Object, Object> record : list) {
+                    Map<String, String> value = new HashMap<>();
+                    record.getValue().forEach((k, v) -> value.put(k.toString(), v.toString()));
+                    messages.put(record.getId(), value);
+                }
+                handle(streamKey, consumerName, messages);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("读取订单消息失败", e);
+                sleepQuietly();
+            }
+        }
+    }
+
+    private void handle(String streamKey, String consumerName, Map<RecordId, Map<String, String>> messages) {
+        long begin = System.nanoTime();
+        try {
+            //1.解析消息，解析失败的不确认，多次投递后转入死信队列
+            Map<Long, RecordId> recordIds = new LinkedHashMap<>();
+            List<VoucherOrder> voucherOrders = new ArrayList<>(messages.size());
+            messages.forEach((id, value) -> {
+                try {
+                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), false);
+                    if (voucherOrder.getId() == null || voucherOrder.getUserId() == null || voucherOrder.getVoucherId() == null) {
+                        throw new IllegalArgumentException("订单消息缺少字段：" + value);
+                    }
+                    recordIds.put(voucherOrder.getId(), id);
+                    voucherOrders.add(voucherOrder);
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("解析订单消息失败，id：{}", id, e);
+                }
+            });
+            //2.批量创建订单，返回处理失败的订单
+            Set<Long> failedIds = voucherOrderService.handleVoucherOrders(voucherOrders);
+            //3.确认处理成功的消息 XACK stream.orders:{s0} g1 id1 id2 ...，失败的留在未确认列表中等待回收重试
+            List<RecordId> acks = new ArrayList<>(recordIds.size());
+            recordIds.forEach((orderId, id) -> {
+                if (!failedIds.contains(orderId)) {
+                    acks.add(id);
+                }
+            });
+            if (!acks.isEmpty()) {
+                stringRedisTemplate.opsForStream().acknowledge(streamKey, ORDER_STREAM_GROUP, acks.toArray(new RecordId[0]));
+            }
+            processed.get(streamKey + "/" + consumerName).add(acks.size());
+            failed.add(failedIds.size());
+        } catch (Exception e) {
+            //整批不确认，等待回收重试
+            failed.add(messages.size());
+            log.error("处理订单消息失败，批次大小：{}", messages.size(), e);
+        } finally {
+            batches.increment();
+            handleLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 多次投递仍失败的消息写入死信队列并确认
+     */
+    private void deadLetter(String streamKey, RecordId id) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(streamKey, Range.closed(id.getValue(), id.getValue()));
+        if (records != null && !records.isEmpty()) {
+            Map<Object, Object> value = new HashMap<>(records.get(0).getValue());
+            value.put("source", streamKey);
+            value.put("sourceId", id.getValue());
+            stringRedisTemplate.opsForStream().add(ORDER_STREAM_DEAD_LETTER_KEY, value);
+        }
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, ORDER_STREAM_GROUP, id);
+        deadLetters.increment();
+        log.error("订单消息多次处理失败，已转入死信队列，stream：{}，id：{}", streamKey, id);
+    }
+
+    /**
+     * 创建消费者组 XGROUP CREATE stream.orders:{s0} g1 0 MKSTREAM，已存在时忽略
+     */
+    private void createGroup(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    raw("CREATE"), raw(streamKey), raw(ORDER_STREAM_GROUP), raw("0"), raw("MKSTREAM")));
+        } catch (Exception e) {
+            String message = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+            if (message == null || !message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private long totalProcessed() {
+        long total = 0;
+        for (LongAdder count : processed.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleepQuietly() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+-- 1.参数列表
+-- KEYS[1] 布隆过滤器的key
+-- KEYS[2] 已插入元素数量的key
+-- KEYS[3] 位数组大小和哈希函数个数的key
+-- KEYS[4] 重建中的临时过滤器的key
+-- KEYS[5] 临时过滤器已插入元素数量的key
+-- KEYS[6] 临时过滤器的大小，存在即表示正在重建
+-- ARGV[1] 第一个哈希值
+-- ARGV[2] 第二个哈希值
+
+local h1 = tonumber(ARGV[1])
+local h2 = tonumber(ARGV[2])
+
+-- 2.按过滤器自己的大小计算偏移量并逐位置1，记录插入数量，用于估算误判率
+local function add(key, countKey, metaKey)
+    local meta = redis.call('hmget', metaKey, 'bits', 'hashes')
+    if(not meta[1]) then
+        return
+    end
+    local bits = tonumber(meta[1])
+    for i = 1, tonumber(meta[2]) do
+        redis.call('setbit', key, math.fmod(h1 + i * h2, bits), 1)
+    end
+    redis.call('incr', countKey)
+end
+
+-- 3.写入正在使用的过滤器
+add(KEYS[1], KEYS[2], KEYS[3])
+-- 4.任意节点正在重建时同时写入临时过滤器，重命名后不会丢失
+add(KEYS[4], KEYS[5], KEYS[6])
+return 1
@@ -0,0 +1,21 @@
+-- 1.参数列表
+-- KEYS[1] 布隆过滤器的key
+-- KEYS[2] 位数组大小和哈希函数个数的key
+-- ARGV[1] 第一个哈希值
+-- ARGV[2] 第二个哈希值
+
+-- 2.过滤器尚未构建完成时直接放行，避免误拦截
+local meta = redis.call('hmget', KEYS[2], 'bits', 'hashes')
+if(not meta[1] or redis.call('exists', KEYS[1]) == 0) then
+    return 1
+end
+-- 3.按当前的位数组大小计算偏移量 (h1 + i * h2) mod m，任意一位为0，说明一定不存在
+local bits = tonumber(meta[1])
+local h1 = tonumber(ARGV[1])
+local h2 = tonumber(ARGV[2])
+for i = 1, tonumber(meta[2]) do
+    if(redis.call('getbit', KEYS[1], math.fmod(h1 + i * h2, bits)) == 0) then
+        return 0
+    end
+end
+return 1
@@ -0,0 +1,15 @@
+-- 1.参数列表
+-- KEYS[1] 临时过滤器的key
+-- KEYS[2] 临时过滤器已插入元素数量的key
+-- KEYS[3] 临时过滤器的大小
+-- KEYS[4] 布隆过滤器的key
+-- KEYS[5] 已插入元素数量的key
+-- KEYS[6] 位数组大小和哈希函数个数的key
+
+-- 2.位数组、数量和大小一起替换，查询和新增不会看到不一致的组合
+redis.call('rename', KEYS[1], KEYS[4])
+redis.call('rename', KEYS[2], KEYS[5])
+redis.call('rename', KEYS[3], KEYS[6])
+-- 3.临时过滤器的大小带有过期时间(重建标记)，替换后永久保存
+redis.call('persist', KEYS[6])
+return 1
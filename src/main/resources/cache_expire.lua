@@ -0,0 +1,14 @@
+-- 1.参数列表
+-- KEYS       需要标记为已过期的缓存key
+-- ARGV[2i-1] 第i个key读取到的旧值
+-- ARGV[2i]   第i个key修改了逻辑过期时间的新值
+
+-- 2.值没有被其他节点重建过才覆盖，避免用旧数据覆盖刚重建的新数据
+local count = 0
+for i = 1, #KEYS do
+    if(redis.call('get', KEYS[i]) == ARGV[2 * i - 1]) then
+        redis.call('set', KEYS[i], ARGV[2 * i])
+        count = count + 1
+    end
+end
+return count
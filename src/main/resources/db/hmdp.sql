@@ -1274,11 +1274,44 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
 -- Records of tb_voucher_order
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_cache_outbox
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_cache_outbox`;
+CREATE TABLE `tb_cache_outbox`  (
+  `id` bigint(20) UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `cache_key` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '需要失效的缓存key',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  PRIMARY KEY (`id`) USING BTREE
+) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci COMMENT = '缓存失效发件箱，由触发器与业务数据在同一事务中写入' ROW_FORMAT = Compact;
+
+-- ----------------------------
+-- Triggers structure for table tb_shop
+-- ----------------------------
+DROP TRIGGER IF EXISTS `tb_shop_cache_insert`;
+delimiter ;;
+CREATE TRIGGER `tb_shop_cache_insert` AFTER INSERT ON `tb_shop` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`cache_key`) VALUES (CONCAT('cache:shop:', NEW.`id`))
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `tb_shop_cache_update`;
+delimiter ;;
+CREATE TRIGGER `tb_shop_cache_update` AFTER UPDATE ON `tb_shop` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`cache_key`) VALUES (CONCAT('cache:shop:', NEW.`id`))
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `tb_shop_cache_delete`;
+delimiter ;;
+CREATE TRIGGER `tb_shop_cache_delete` AFTER DELETE ON `tb_shop` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`cache_key`) VALUES (CONCAT('cache:shop:', OLD.`id`))
+;;
+delimiter ;
+
 SET FOREIGN_KEY_CHECKS = 1;
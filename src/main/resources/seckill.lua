@@ -1,28 +1,56 @@
+-- 在用户所属的分片上执行，所有key带有相同的hash tag {s<i>}
+-- 脚本中读取了TIME，Redis 5以前需要按命令复制
+if redis.replicate_commands then
+    redis.replicate_commands()
+end
 -- 1.参数列表
--- 1.1. 优惠劵id
+-- 1.1.库存key seckill:{s<i>}:stock:<voucherId>
+local stockKey = KEYS[1]
+-- 1.2.订单key seckill:{s<i>}:order:<voucherId>
+local orderKey = KEYS[2]
+-- 1.3.订单消息队列 stream.orders:{s<i>}
+local streamKey = KEYS[3]
+-- 1.4.秒杀信息 seckill:{s<i>}:meta:<voucherId>，由SeckillPreheater预热
+local metaKey = KEYS[4]
+-- 1.5.优惠劵id
 local voucherId = ARGV[1]
--- 1.2.用户id
+-- 1.6.用户id
 local userId = ARGV[2]
+-- 1.7.订单id
+local orderId = ARGV[3]
 
---2.数据KEY
---2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
---2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
-
--- 3.脚本业务
--- 3.1. 判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    --3.2 库存不足，返回1
-    return 1
+-- 2.脚本业务
+-- 2.0.判断时间窗口，使用Redis的时间，各节点时钟不一致也不影响
+local meta = redis.call('hmget', metaKey, 'begin', 'end')
+if(not meta[1] or not meta[2]) then
+    --没有预热，返回3
+    return 3
+end
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if(now < tonumber(meta[1])) then
+    --尚未开始，返回4
+    return 4
 end
---3.2.判断用户是否下单 SISMEMBER orderKey userId
+if(now > tonumber(meta[2])) then
+    --已经结束，返回5
+    return 5
+end
+-- 2.1.判断用户是否下单 SISMEMBER orderKey userId
 if(redis.call('sismember', orderKey, userId) == 1) then
-    --3.3.存在，说明是重复下单，返回2
+    --存在，说明是重复下单，返回2
     return 2
 end
---3.4.扣库存 incrby stockKey -1
+-- 2.2.判断本分片库存是否充足 get stockKey
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil or stock <= 0) then
+    --本分片库存不足，返回1，由调用方尝试其他分片
+    return 1
+end
+--2.3.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
---3.5.下单（保存用户） sadd orderKey userId
+--2.4.下单（保存用户） sadd orderKey userId
 redis.call('sadd', orderKey, userId)
-return 0
\ No newline at end of file
+--2.5.发送订单消息到消息队列 XADD stream.orders:{s<i>} * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
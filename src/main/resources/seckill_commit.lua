@@ -0,0 +1,17 @@
+-- 从其他分片扣到库存后，在用户所属的分片上记录用户并发送订单
+-- 1.参数列表
+-- 1.1.订单key seckill:{s<i>}:order:<voucherId>
+local orderKey = KEYS[1]
+-- 1.2.订单消息队列 stream.orders:{s<i>}
+local streamKey = KEYS[2]
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+
+-- 2.下单（保存用户），用户已经存在说明并发的请求已经下单，返回2，由调用方归还库存
+if(redis.call('sadd', orderKey, userId) == 0) then
+    return 2
+end
+-- 3.发送订单消息到消息队列
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
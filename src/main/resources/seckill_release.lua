@@ -0,0 +1,15 @@
+-- 确认或归还从其他分片扣减的库存
+-- 1.参数列表
+-- KEYS[1] 未确认的扣减 seckill:{s<i>}:taken
+-- KEYS[2] 库存 seckill:{s<i>}:stock:<voucherId>
+-- ARGV[1] 扣减记录 <voucherId>:<userId>:<orderId>
+-- ARGV[2] 1归还库存，0下单成功只删除记录
+
+-- 2.记录已被删除说明已经处理过(请求本身或对账任务)，不重复归还
+if(redis.call('zrem', KEYS[1], ARGV[1]) == 0) then
+    return 0
+end
+if(ARGV[2] == '1') then
+    redis.call('incrby', KEYS[2], 1)
+end
+return 1
@@ -0,0 +1,20 @@
+-- 从其他分片扣减一个库存，同时在该分片上记录这次扣减，下单确认后删除
+-- 记录和扣减在同一个脚本中，节点在下单前宕机时由SeckillTakeReconciler归还库存
+-- 脚本中读取了TIME，Redis 5以前需要按命令复制
+if redis.replicate_commands then
+    redis.replicate_commands()
+end
+-- 1.参数列表
+-- KEYS[1] 库存 seckill:{s<i>}:stock:<voucherId>
+-- KEYS[2] 未确认的扣减 seckill:{s<i>}:taken
+-- ARGV[1] 扣减记录 <voucherId>:<userId>:<orderId>
+local stock = tonumber(redis.call('get', KEYS[1]))
+if(stock == nil or stock <= 0) then
+    -- 库存不足，返回1
+    return 1
+end
+redis.call('incrby', KEYS[1], -1)
+-- 2.按Redis的时间记录扣减时间，超时未确认的由对账任务处理
+local time = redis.call('time')
+redis.call('zadd', KEYS[2], tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000), ARGV[1])
+return 0
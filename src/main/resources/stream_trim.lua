@@ -0,0 +1,17 @@
+-- 删除消息队列中id小于ARGV[1]的消息，返回删除的条数
+-- 1.XTRIM KEYS[1] MINID ARGV[1]，需要Redis 6.2及以上
+local trimmed = redis.pcall('xtrim', KEYS[1], 'MINID', ARGV[1])
+if type(trimmed) == 'number' then
+    return trimmed
+end
+-- 2.不支持MINID时，数出id小于ARGV[1]的消息(最多ARGV[2]条)，用XTRIM MAXLEN删除最早的这些消息
+--   ~只会少删不会多删，未确认的消息不会被删除
+local old = redis.call('xrange', KEYS[1], '-', ARGV[1], 'COUNT', ARGV[2])
+local n = #old
+if n > 0 and old[n][1] == ARGV[1] then
+    n = n - 1
+end
+if n == 0 then
+    return 0
+end
+return redis.call('xtrim', KEYS[1], 'MAXLEN', '~', redis.call('xlen', KEYS[1]) - n)
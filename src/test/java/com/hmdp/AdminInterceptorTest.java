@@ -0,0 +1,64 @@
+package com.hmdp;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.AdminInterceptor;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 管理接口拦截器，不需要数据库和Redis
+ */
+class AdminInterceptorTest {
+
+    private final AdminInterceptor interceptor = new AdminInterceptor(Collections.singleton(1L));
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void testRejectsAnonymousUser() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(401, response.getStatus());
+    }
+
+    @Test
+    void testRejectsNonAdminUser() throws Exception {
+        UserHolder.saveUser(user(2L));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(403, response.getStatus());
+    }
+
+    @Test
+    void testAllowsAdminUser() throws Exception {
+        UserHolder.saveUser(user(1L));
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    void testRejectsEveryoneWithoutConfiguredAdmins() throws Exception {
+        UserHolder.saveUser(user(1L));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(new AdminInterceptor(Collections.emptySet())
+                .preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(403, response.getStatus());
+    }
+
+    private static UserDTO user(Long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        return user;
+    }
+}
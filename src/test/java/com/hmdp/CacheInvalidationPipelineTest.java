@@ -0,0 +1,66 @@
+package com.hmdp;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidationPipeline;
+import com.hmdp.utils.LocalCacheChangeFeed;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 缓存失效流水线，使用进程内的变更数据源，不需要数据库和Redis
+ */
+class CacheInvalidationPipelineTest {
+
+    private LocalCacheChangeFeed feed;
+    private CacheClient cacheClient;
+    private CacheInvalidationPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        feed = new LocalCacheChangeFeed();
+        cacheClient = mock(CacheClient.class);
+        pipeline = new CacheInvalidationPipeline(feed, cacheClient);
+    }
+
+    @Test
+    void testDrainDeduplicatesAndSortsKeys() {
+        feed.publish("cache:shop:2");
+        feed.publish("cache:shop:1");
+        feed.publish("cache:shop:2");
+
+        Collection<String> evicted = new ArrayList<>();
+        doAnswer(invocation -> evicted.addAll(invocation.getArgument(0)))
+                .when(cacheClient).evictBatch(any());
+
+        assertEquals(3, pipeline.drain());
+        assertEquals(Arrays.asList("cache:shop:1", "cache:shop:2"), evicted);
+        assertEquals(0, feed.size());
+    }
+
+    @Test
+    void testFailedChangesAreRetried() {
+        feed.publish("cache:shop:1");
+        doThrow(new RuntimeException("redis down")).when(cacheClient).evictBatch(any());
+
+        assertEquals(0, pipeline.drain());
+        assertEquals(1, feed.size());
+
+        //Redis恢复后重试成功
+        doAnswer(invocation -> null).when(cacheClient).evictBatch(any());
+        assertEquals(1, pipeline.drain());
+        assertEquals(0, feed.size());
+        verify(cacheClient, times(2)).evictBatch(any());
+    }
+}
@@ -5,25 +5,17 @@ import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopGeoSync;
 import org.junit.jupiter.api.Test;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.data.geo.Point;
-import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-
-import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 
 /**
  * 全局唯一ID生成策略:
@@ -49,6 +41,9 @@ class HmDianPingApplicationTests {
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private ShopGeoSync shopGeoSync;
+
 
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
@@ -86,29 +81,7 @@ class HmDianPingApplicationTests {
 
     @Test
     void loadShopData() {
-        //1.查询店铺信息
-        List<Shop> list = shopService.list();
-        //2.把店铺分组，按照typeId分组，id一致的放在一个集合
-        Map<Long, List<Shop>> map = list.stream().collect(Collectors.groupingBy(Shop::getTypeId));
-
-        //3.分批完成写入redis
-        for (Map.Entry<Long, List<Shop>> entry : map.entrySet()) {
-            //3.1获取类型id
-            Long typeId = entry.getKey();
-            String key = SHOP_GEO_KEY + typeId;
-            //3.2 获取同类型店铺集合
-            List<Shop> value = entry.getValue();
-            List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(value.size());
-            //3.3写入redis GEOADD key 经度 纬度 member
-            for (Shop shop : value) {
-//                stringRedisTemplate.opsForGeo().add(key, new Point(shop.getX(), shop.getY()), shop.getId().toString());
-                locations.add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(),
-                        new Point(shop.getX(), shop.getY())));
-            }
-            stringRedisTemplate.opsForGeo().add(key, locations);
-        }
+        //游标流式读取所有店铺，分批写入redis GEO
+        shopGeoSync.reconcile();
     }
-
-
-
 }
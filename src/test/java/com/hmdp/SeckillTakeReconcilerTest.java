@@ -0,0 +1,117 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillShards;
+import com.hmdp.utils.SeckillTakeReconciler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_TAKE_TIMEOUT_MILLIS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 从其他分片扣减库存的对账：超时未确认的扣减按下单结果归还或删除，未超时的不处理
+ * 需要本地的MySQL和Redis
+ */
+@SpringBootTest
+class SeckillTakeReconcilerTest {
+
+    private static final int SHARD = 1;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillTakeReconciler seckillTakeReconciler;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    private Long voucherId;
+
+    private final List<String> members = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        voucherId = redisIdWorker.nextId("test:voucher");
+        stringRedisTemplate.opsForValue().set(SeckillShards.stockKey(voucherId, SHARD), "0");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.opsForZSet().remove(SeckillShards.takenKey(SHARD), members.toArray());
+        stringRedisTemplate.delete(SeckillShards.stockKey(voucherId, SHARD));
+        stringRedisTemplate.delete(SeckillShards.orderKey(voucherId, 0));
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+    }
+
+    @Test
+    void testExpiredTakesAreRefundedByOrderResult() {
+        long expired = System.currentTimeMillis() - SECKILL_TAKE_TIMEOUT_MILLIS - 1000;
+        //1.没有下单，归还
+        String notOrdered = take(4L, redisIdWorker.nextId("order"), expired);
+        //2.下单成功，订单就是这次请求的订单，只删除记录
+        long orderId = redisIdWorker.nextId("order");
+        String ordered = take(8L, orderId, expired);
+        order(8L, orderId);
+        //3.用户的订单是其他请求的订单，归还
+        String duplicate = take(12L, redisIdWorker.nextId("order"), expired);
+        order(12L, redisIdWorker.nextId("order"));
+        //4.未超时，不处理
+        String young = take(16L, redisIdWorker.nextId("order"), System.currentTimeMillis());
+
+        assertEquals(2, seckillTakeReconciler.reconcile());
+
+        assertEquals("2", stringRedisTemplate.opsForValue().get(SeckillShards.stockKey(voucherId, SHARD)));
+        String takenKey = SeckillShards.takenKey(SHARD);
+        assertNull(stringRedisTemplate.opsForZSet().score(takenKey, notOrdered));
+        assertNull(stringRedisTemplate.opsForZSet().score(takenKey, ordered));
+        assertNull(stringRedisTemplate.opsForZSet().score(takenKey, duplicate));
+        assertNotNull(stringRedisTemplate.opsForZSet().score(takenKey, young));
+    }
+
+    @Test
+    void testOrderStillInQueueIsKept() {
+        String pending = take(4L, redisIdWorker.nextId("order"), System.currentTimeMillis() - SECKILL_TAKE_TIMEOUT_MILLIS - 1000);
+        stringRedisTemplate.opsForSet().add(SeckillShards.orderKey(voucherId, 0), "4");
+
+        assertEquals(0, seckillTakeReconciler.reconcile());
+
+        assertEquals("0", stringRedisTemplate.opsForValue().get(SeckillShards.stockKey(voucherId, SHARD)));
+        assertNotNull(stringRedisTemplate.opsForZSet().score(SeckillShards.takenKey(SHARD), pending));
+    }
+
+    /**
+     * 模拟在分片SHARD上扣减的记录，用户所属分片为0
+     */
+    private String take(Long userId, long orderId, long takenAt) {
+        String member = SeckillShards.takenMember(voucherId, userId, orderId);
+        stringRedisTemplate.opsForZSet().add(SeckillShards.takenKey(SHARD), member, takenAt);
+        members.add(member);
+        return member;
+    }
+
+    private void order(Long userId, long orderId) {
+        stringRedisTemplate.opsForSet().add(SeckillShards.orderKey(voucherId, 0), userId.toString());
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        voucherOrderService.save(voucherOrder);
+    }
+}
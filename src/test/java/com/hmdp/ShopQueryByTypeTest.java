@@ -0,0 +1,73 @@
+package com.hmdp;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按类型分页查询店铺：按排行排序，带坐标时先取半径内的全部店铺再排序
+ * 需要本地的MySQL(hmdp.sql中的店铺数据)和Redis
+ */
+@SpringBootTest
+class ShopQueryByTypeTest {
+
+    private static final double X = 120.149;
+    private static final double Y = 30.32;
+
+    @Resource
+    private IShopService shopService;
+
+    @Test
+    void testSortByWithCoordinates() {
+        //1.逐页读取按销量排序的附近店铺
+        List<Shop> shops = new ArrayList<>();
+        for (int current = 1; ; current++) {
+            Result result = shopService.queryShopByType(1, current, X, Y, "sold", null, null);
+            assertTrue(result.getSuccess());
+            List<Shop> page = shopsOf(result);
+            if (page.isEmpty()) {
+                break;
+            }
+            assertTrue(page.size() <= 5);
+            shops.addAll(page);
+        }
+        //2.半径内的店铺都返回，按销量从高到低，每个店铺都带有距离
+        assertEquals(9, shops.size());
+        for (int i = 1; i < shops.size(); i++) {
+            assertTrue(shops.get(i - 1).getSold() >= shops.get(i).getSold());
+        }
+        assertTrue(shops.stream().allMatch(shop -> shop.getDistance() != null));
+    }
+
+    @Test
+    void testSortByWithoutCoordinates() {
+        List<Long> first = idsOf(shopService.queryShopByType(1, 1, null, null, "sold", null, null));
+        List<Long> second = idsOf(shopService.queryShopByType(1, 2, null, null, "sold", null, null));
+        List<Long> third = idsOf(shopService.queryShopByType(1, 3, null, null, "sold", null, null));
+        List<Long> all = new ArrayList<>(first);
+        all.addAll(second);
+        assertEquals(5, first.size());
+        assertEquals(4, second.size());
+        assertTrue(third.isEmpty());
+        assertEquals(9, all.stream().distinct().count());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Shop> shopsOf(Result result) {
+        return (List<Shop>) result.getData();
+    }
+
+    private static List<Long> idsOf(Result result) {
+        return shopsOf(result).stream().map(Shop::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp;
+
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopTypeService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_VERSION_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 店铺类型快照刷新：Redis中的版本号丢失后计数从0重新开始，各节点仍然能够重新加载
+ * 需要本地的MySQL和Redis
+ */
+@SpringBootTest
+class ShopTypeRefreshTest {
+
+    private static final long TYPE_ID = 2L;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private String originalName;
+
+    @BeforeEach
+    void setUp() {
+        originalName = shopTypeService.getById(TYPE_ID).getName();
+    }
+
+    @AfterEach
+    void tearDown() {
+        shopTypeService.updateById(new ShopType().setId(TYPE_ID).setName(originalName));
+        shopTypeService.publishChange();
+        shopTypeService.refresh();
+    }
+
+    @Test
+    void testRefreshAfterVersionKeyReset() {
+        //1.版本号增加几次，当前节点加载到较大的版本
+        for (int i = 0; i < 3; i++) {
+            shopTypeService.publishChange();
+        }
+        shopTypeService.refresh();
+
+        //2.版本号丢失，之后的修改从1重新计数
+        stringRedisTemplate.delete(CACHE_SHOPTYPE_VERSION_KEY);
+        shopTypeService.updateById(new ShopType().setId(TYPE_ID).setName(originalName + "-renamed"));
+        assertEquals(1L, shopTypeService.publishChange());
+
+        //3.版本号变小也会重新加载
+        shopTypeService.refresh();
+        assertEquals(originalName + "-renamed", nameOf(TYPE_ID));
+    }
+
+    @SuppressWarnings("unchecked")
+    private String nameOf(Long id) {
+        for (ShopType shopType : (List<ShopType>) shopTypeService.queryTypeList().getData()) {
+            if (id.equals(shopType.getId())) {
+                return shopType.getName();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,163 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 不加锁创建订单：同一用户的订单被重复投递、并发处理时，数据库中只有一单，库存只扣一次
+ * 需要本地的MySQL，tb_voucher_order上有唯一索引uk_user_voucher
+ */
+@SpringBootTest
+class VoucherOrderConcurrencyTest {
+
+    private static final int USERS = 50;
+    private static final int DUPLICATES = 10;
+    private static final int STOCK = 100;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    private Long voucherId;
+
+    @BeforeEach
+    void setUp() {
+        voucherId = redisIdWorker.nextId("test:voucher");
+        SeckillVoucher seckillVoucher = new SeckillVoucher();
+        seckillVoucher.setVoucherId(voucherId);
+        seckillVoucher.setStock(STOCK);
+        seckillVoucher.setBeginTime(LocalDateTime.now().minusDays(1));
+        seckillVoucher.setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.save(seckillVoucher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        seckillVoucherService.removeById(voucherId);
+    }
+
+    @Test
+    void testNoDuplicateOrdersUnderLoad() throws Exception {
+        //1.每个用户的订单投递DUPLICATES次：一半是同一条消息重复投递，一半是新的订单id
+        List<VoucherOrder> orders = new ArrayList<>();
+        for (long userId = 1; userId <= USERS; userId++) {
+            long orderId = redisIdWorker.nextId("order");
+            for (int i = 0; i < DUPLICATES; i++) {
+                VoucherOrder voucherOrder = new VoucherOrder();
+                voucherOrder.setId(i % 2 == 0 ? orderId : redisIdWorker.nextId("order"));
+                voucherOrder.setUserId(userId);
+                voucherOrder.setVoucherId(voucherId);
+                orders.add(voucherOrder);
+            }
+        }
+        Collections.shuffle(orders);
+
+        //2.并发处理，一半走批量，一半逐条；失败的订单按消息回收的方式重试
+        ExecutorService es = Executors.newFixedThreadPool(32);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < orders.size(); from += DUPLICATES) {
+            List<VoucherOrder> batch = orders.subList(from, from + DUPLICATES);
+            boolean batched = (from / DUPLICATES) % 2 == 0;
+            futures.add(es.submit(() -> {
+                if (batched) {
+                    handleWithRetry(batch);
+                } else {
+                    for (VoucherOrder voucherOrder : batch) {
+                        handleOneWithRetry(voucherOrder);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        es.shutdown();
+
+        //3.每个用户只有一单，库存只扣了用户数
+        List<VoucherOrder> created = voucherOrderService.query().eq("voucher_id", voucherId).list();
+        Set<Long> userIds = created.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        assertEquals(USERS, created.size());
+        assertEquals(USERS, userIds.size());
+        assertEquals(STOCK - USERS, seckillVoucherService.getById(voucherId).getStock().intValue());
+    }
+
+    @Test
+    void testOutOfStockOrderIsRolledBackAndThrows() {
+        //库存扣减失败时抛出异常，订单回滚，消息不会被确认
+        seckillVoucherService.update().set("stock", 0).eq("voucher_id", voucherId).update();
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(redisIdWorker.nextId("order"));
+        voucherOrder.setUserId(1L);
+        voucherOrder.setVoucherId(voucherId);
+
+        assertThrows(IllegalStateException.class, () -> voucherOrderService.handleVoucherOrder(voucherOrder));
+        assertEquals(0, voucherOrderService.query().eq("voucher_id", voucherId).count());
+    }
+
+    @Test
+    void testNonDuplicateInsertWarningIsNotIgnored() {
+        //user_id是无符号列，INSERT IGNORE会把-1写成0并只产生警告；只有重复订单可以被忽略
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(redisIdWorker.nextId("order"));
+        voucherOrder.setUserId(-1L);
+        voucherOrder.setVoucherId(voucherId);
+
+        assertEquals(Collections.singleton(voucherOrder.getId()),
+                voucherOrderService.handleVoucherOrders(Collections.singletonList(voucherOrder)));
+        assertThrows(IllegalStateException.class, () -> voucherOrderService.handleVoucherOrder(voucherOrder));
+        assertEquals(0, voucherOrderService.query().eq("voucher_id", voucherId).count());
+        assertEquals(STOCK, seckillVoucherService.getById(voucherId).getStock().intValue());
+    }
+
+    private void handleWithRetry(List<VoucherOrder> batch) {
+        List<VoucherOrder> pending = batch;
+        for (int i = 0; i < 3 && !pending.isEmpty(); i++) {
+            Set<Long> failed = voucherOrderService.handleVoucherOrders(pending);
+            pending = pending.stream().filter(o -> failed.contains(o.getId())).collect(Collectors.toList());
+        }
+        assertTrue(pending.isEmpty(), "订单处理失败：" + pending.size());
+    }
+
+    private void handleOneWithRetry(VoucherOrder voucherOrder) {
+        for (int i = 0; ; i++) {
+            try {
+                voucherOrderService.handleVoucherOrder(voucherOrder);
+                return;
+            } catch (RuntimeException e) {
+                //例如死锁回滚，重试
+                if (i >= 2) {
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillShards;
+import com.hmdp.utils.VoucherOrderStreamConsumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.ORDER_STREAM_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 订单消息队列：消息由消费者组异步创建订单并确认，处理失败的消息不阻塞后续消息，已确认的消息会被删除
+ * 需要本地的MySQL和Redis
+ */
+@SpringBootTest
+class VoucherOrderStreamTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private VoucherOrderStreamConsumer voucherOrderStreamConsumer;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    private Long voucherId;
+
+    @BeforeEach
+    void setUp() {
+        voucherId = redisIdWorker.nextId("test:voucher");
+        SeckillVoucher seckillVoucher = new SeckillVoucher();
+        seckillVoucher.setVoucherId(voucherId);
+        seckillVoucher.setStock(10);
+        seckillVoucher.setBeginTime(LocalDateTime.now().minusDays(1));
+        seckillVoucher.setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.save(seckillVoucher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        seckillVoucherService.removeById(voucherId);
+    }
+
+    @Test
+    void testOrderIsCreatedAndAcked() throws InterruptedException {
+        long userId = 1;
+        long orderId = redisIdWorker.nextId("order");
+        String streamKey = SeckillShards.streamKey(SeckillShards.homeShard(userId));
+        RecordId recordId = send(streamKey, String.valueOf(userId), String.valueOf(orderId));
+
+        assertNotNull(awaitOrder(orderId));
+        assertTrue(awaitAcked(streamKey, recordId));
+        assertEquals(9, seckillVoucherService.getById(voucherId).getStock().intValue());
+    }
+
+    @Test
+    void testFailedMessageDoesNotBlockLaterOrders() throws InterruptedException {
+        long userId = 2;
+        String streamKey = SeckillShards.streamKey(SeckillShards.homeShard(userId));
+        //1.无法创建订单的消息
+        RecordId poison = send(streamKey, String.valueOf(userId), "not-a-number");
+        //2.之后的正常消息仍然被处理，换一个属于同一分片的用户
+        long orderId = redisIdWorker.nextId("order");
+        RecordId recordId = send(streamKey, String.valueOf(userId + SECKILL_STOCK_SHARDS), String.valueOf(orderId));
+
+        assertNotNull(awaitOrder(orderId));
+        assertTrue(awaitAcked(streamKey, recordId));
+        //3.失败的消息留在未确认列表中，等待回收重试或转入死信队列
+        assertFalse(isAcked(streamKey, poison));
+    }
+
+    @Test
+    void testRecoverTrimsAckedMessages() throws InterruptedException {
+        long userId = 3;
+        long orderId = redisIdWorker.nextId("order");
+        String streamKey = SeckillShards.streamKey(SeckillShards.homeShard(userId));
+        RecordId recordId = send(streamKey, String.valueOf(userId), String.valueOf(orderId));
+        assertNotNull(awaitOrder(orderId));
+        assertTrue(awaitAcked(streamKey, recordId));
+
+        voucherOrderStreamConsumer.recover();
+
+        //已确认的消息已被删除
+        assertTrue(stringRedisTemplate.opsForStream()
+                .range(streamKey, Range.closed(recordId.getValue(), recordId.getValue())).isEmpty());
+    }
+
+    private RecordId send(String streamKey, String userId, String orderId) {
+        Map<String, String> value = new HashMap<>();
+        value.put("userId", userId);
+        value.put("voucherId", voucherId.toString());
+        value.put("id", orderId);
+        return stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(streamKey).ofMap(value));
+    }
+
+    private VoucherOrder awaitOrder(long orderId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            VoucherOrder voucherOrder = voucherOrderService.getById(orderId);
+            if (voucherOrder != null) {
+                return voucherOrder;
+            }
+            Thread.sleep(100);
+        }
+        return null;
+    }
+
+    private boolean awaitAcked(String streamKey, RecordId recordId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (isAcked(streamKey, recordId)) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    private boolean isAcked(String streamKey, RecordId recordId) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(streamKey, ORDER_STREAM_GROUP,
+                Range.closed(recordId.getValue(), recordId.getValue()), 1L);
+        return pending.isEmpty();
+    }
+}